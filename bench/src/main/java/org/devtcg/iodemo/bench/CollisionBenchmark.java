@@ -0,0 +1,74 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.BallStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The narrowphase test {@link BallStore#colliding} in isolation, for each of
+ * the ways it can exit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollisionBenchmark {
+    private static final float RADIUS = 7.5f;
+
+    private final BallStore mBalls = new BallStore(8);
+
+    /* Overlapping right now; exits on the first test. */
+    private int mHitA, mHitB;
+
+    /* Apart and separating; exits on the relative velocity test. */
+    private int mRejectA, mRejectB;
+
+    /* Approaching but passing wide of each other; runs the full test. */
+    private int mMissA, mMissB;
+
+    @Setup
+    public void setUp() {
+        mHitA = addBall(100f, 100f, 1f, 0f);
+        mHitB = addBall(110f, 100f, -1f, 0f);
+
+        mRejectA = addBall(100f, 200f, -2f, 0f);
+        mRejectB = addBall(140f, 200f, 2f, 0f);
+
+        mMissA = addBall(100f, 300f, 2f, 0f);
+        mMissB = addBall(200f, 340f, -2f, 0f);
+    }
+
+    private int addBall(float x, float y, float dx, float dy) {
+        int ball = mBalls.add(x, y, RADIUS, BallStore.COLOR_GRAY);
+        mBalls.dx[ball] = dx;
+        mBalls.dy[ball] = dy;
+        return ball;
+    }
+
+    @Benchmark
+    public boolean hit() {
+        return mBalls.colliding(mHitA, mHitB, 1f);
+    }
+
+    @Benchmark
+    public boolean fastReject() {
+        return mBalls.colliding(mRejectA, mRejectB, 1f);
+    }
+
+    @Benchmark
+    public boolean miss() {
+        return mBalls.colliding(mMissA, mMissB, 1f);
+    }
+}
@@ -0,0 +1,95 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.BallSimulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the clock ticking over one second, for rollovers that change
+ * progressively more digits (e.g. DAY goes from 1d 00:00:00 to 0d 23:59:59
+ * and changes every digit on the clock). Includes spawning the balls that
+ * fall off the clock, but no physics.
+ * <p>
+ * A tick can't be repeated on one simulation without ticking it back, so
+ * each invocation ticks {@link #CLOCKS} simulations that were all set up
+ * just before the rollover. That spreads JMH's per-invocation bookkeeping,
+ * which is on the order of the smaller rollovers, over the batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DigitChangeBenchmark {
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    private static final int CLOCKS = 16;
+
+    @Param({ "DAY", "HOUR", "MINUTE", "SECOND" })
+    public String rollover;
+
+    private final BallSimulation[] mSimulations = new BallSimulation[CLOCKS];
+
+    /* Wall clock times just before and just after the rollover. */
+    private long mBefore;
+    private long mAfter;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        for (int i = 0; i < CLOCKS; i++) {
+            mSimulations[i] = Scenes.newSimulation(1, BallSimulation.DEFAULT_MAX_ANIMATING_BALLS);
+        }
+
+        long timeLeft;
+        if ("DAY".equals(rollover)) {
+            timeLeft = DAY;
+        } else if ("HOUR".equals(rollover)) {
+            timeLeft = HOUR;
+        } else if ("MINUTE".equals(rollover)) {
+            timeLeft = MINUTE;
+        } else {
+            timeLeft = 11 * SECOND;
+        }
+        mBefore = Scenes.COUNTDOWN_TO - timeLeft;
+        mAfter = mBefore + SECOND;
+    }
+
+    @Setup(Level.Invocation)
+    public void showBefore() {
+        /*
+         * The nanosecond clock never moves, so no physics steps are run and
+         * only the digit changes are measured.
+         */
+        for (BallSimulation simulation : mSimulations) {
+            simulation.update(mBefore, 1);
+            simulation.getAnimatingBalls().clear();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLOCKS)
+    public BallSimulation[] tick() {
+        BallSimulation[] simulations = mSimulations;
+        for (int i = 0; i < CLOCKS; i++) {
+            simulations[i].update(mAfter, 1);
+        }
+        return simulations;
+    }
+}
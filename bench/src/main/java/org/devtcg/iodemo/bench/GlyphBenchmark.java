@@ -0,0 +1,52 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.NumberFont;
+import org.devtcg.iodemo.sim.NumberFont.Glyph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walking glyph cells: {@link Glyph#isLit} over every cell of every digit in
+ * the font, versus visiting just the cells that change for every digit
+ * transition using the precomputed masks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlyphBenchmark {
+    @Benchmark
+    public void isLitAllCells(Blackhole blackhole) {
+        Glyph[] font = NumberFont.sFont;
+        for (int digit = 0; digit < font.length; digit++) {
+            Glyph glyph = font[digit];
+            for (int y = 0; y < NumberFont.CONSTANT_HEIGHT; y++) {
+                for (int x = 0; x < NumberFont.CONSTANT_WIDTH; x++) {
+                    blackhole.consume(glyph.isLit(x, y));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void changedCellsAllTransitions(Blackhole blackhole) {
+        for (int from = 0; from < 10; from++) {
+            for (int to = 0; to < 10; to++) {
+                int changed = NumberFont.getTurnedOff(from, to) | NumberFont.getTurnedOn(from, to);
+                while (changed != 0) {
+                    blackhole.consume(Integer.numberOfTrailingZeros(changed));
+                    changed &= changed - 1;
+                }
+            }
+        }
+    }
+}
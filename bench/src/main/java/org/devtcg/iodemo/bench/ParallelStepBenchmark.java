@@ -0,0 +1,80 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.BallSimulation;
+import org.devtcg.iodemo.sim.BallStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One physics step spread across a varying number of threads, for measuring
+ * what {@link BallSimulation#setThreadCount} gains (or costs) on a given
+ * machine.
+ * <p>
+ * Only single core results have been recorded so far, where the extra
+ * threads can't run concurrently and just add handoff overhead (JDK 17,
+ * us/op, 3 iterations):
+ *
+ * <pre>
+ * balls   threads=1  threads=2  threads=4
+ * 10000       17477      21215      20058
+ * 50000      341344     400451     381995
+ * </pre>
+ *
+ * Whether the step scales with cores is still to be measured on a multi-core
+ * machine; until then don't ask for more threads than there are cores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelStepBenchmark {
+    @Param({ "10000", "50000" })
+    public int balls;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    private BallSimulation mSimulation;
+    private BallStore mScene;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        mSimulation = Scenes.newSimulation(1, balls);
+        mSimulation.setThreadCount(threads);
+        Scenes.scatterBalls(mSimulation, balls, 2);
+
+        mScene = new BallStore(balls);
+        Scenes.copyBalls(mSimulation.getAnimatingBalls(), mScene);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        mSimulation.setThreadCount(1);
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreScene() {
+        Scenes.copyBalls(mScene, mSimulation.getAnimatingBalls());
+    }
+
+    @Benchmark
+    public BallStore step() {
+        mSimulation.step();
+        return mSimulation.getAnimatingBalls();
+    }
+}
@@ -0,0 +1,72 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.BallSimulation;
+import org.devtcg.iodemo.sim.BallStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One physics step (integrate, prune, broadphase and collision resolution)
+ * over a scene of randomly scattered balls. The scene is restored before
+ * every batch of {@link #STEPS} steps, so each batch sees the same starting
+ * state while the restore and JMH's per-invocation bookkeeping are spread
+ * over the batch; at 100 balls they would otherwise rival the step itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhysicsStepBenchmark {
+    /* A sixth of a second; the scene barely changes over a batch. */
+    private static final int STEPS = 10;
+
+    @Param({ "100", "1000", "10000" })
+    public int balls;
+
+    @Param({ "" + BallSimulation.BROADPHASE_GRID, "" + BallSimulation.BROADPHASE_SWEEP_AND_PRUNE,
+            "" + BallSimulation.BROADPHASE_ALL_PAIRS })
+    public int broadphase;
+
+    private BallSimulation mSimulation;
+    private BallStore mScene;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        mSimulation = Scenes.newSimulation(1, balls);
+        mSimulation.setBroadphase(broadphase);
+        Scenes.scatterBalls(mSimulation, balls, 2);
+
+        mScene = new BallStore(balls);
+        Scenes.copyBalls(mSimulation.getAnimatingBalls(), mScene);
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreScene() {
+        Scenes.copyBalls(mScene, mSimulation.getAnimatingBalls());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public BallStore step() {
+        BallSimulation simulation = mSimulation;
+        for (int i = 0; i < STEPS; i++) {
+            simulation.step();
+        }
+        return simulation.getAnimatingBalls();
+    }
+}
@@ -0,0 +1,157 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.BallSimulation;
+import org.devtcg.iodemo.sim.FrameProfiler;
+import org.devtcg.iodemo.sim.SessionPlayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+
+/**
+ * Replays a session recorded on a device (see SessionRecorder) headless and
+ * reports how long each frame's simulation update took, so that a trace of a
+ * slow session becomes a repeatable benchmark.
+ *
+ * <pre>
+ *   java -cp target/benchmarks.jar org.devtcg.iodemo.bench.ReplaySession \
+ *       [--passes N] [--broadphase N] [--step-rate N] [--ccd] [--threads N] \
+ *       [--csv frames.csv] session.rec
+ * </pre>
+ *
+ * The session is replayed {@code passes} times (default 3) to warm up the
+ * JIT; timings are reported for the last pass only. Settings that aren't
+ * part of the recording default to the simulation's own defaults. Settings
+ * the recording does change along the way (the step rate, broadphase
+ * interval and spawn limit, e.g. as the quality governor sheds work) take
+ * over from these options on the frame they were recorded.
+ */
+public class ReplaySession {
+    private int mPasses = 3;
+    private int mBroadphase = -1;
+    private int mStepRate = -1;
+    private boolean mContinuousCollisions;
+    private int mThreads = 1;
+    private String mCsvPath;
+    private String mSessionPath;
+
+    public static void main(String[] args) throws IOException {
+        ReplaySession replay = new ReplaySession();
+        if (!replay.parseArgs(args)) {
+            System.err.println("Usage: ReplaySession [--passes N] [--broadphase N] " +
+                    "[--step-rate N] [--ccd] [--threads N] [--csv FILE] SESSION");
+            System.exit(2);
+        }
+        replay.run();
+    }
+
+    private boolean parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            if (arg.equals("--passes") && hasValue) {
+                mPasses = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--broadphase") && hasValue) {
+                mBroadphase = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--step-rate") && hasValue) {
+                mStepRate = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--ccd")) {
+                mContinuousCollisions = true;
+            } else if (arg.equals("--threads") && hasValue) {
+                mThreads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--csv") && hasValue) {
+                mCsvPath = args[++i];
+            } else if (!arg.startsWith("--") && mSessionPath == null) {
+                mSessionPath = arg;
+            } else {
+                return false;
+            }
+        }
+        return mSessionPath != null && mPasses > 0;
+    }
+
+    private void run() throws IOException {
+        /* Read the file up front so disk I/O isn't charged to any frame. */
+        byte[] session = readFully(mSessionPath);
+
+        for (int pass = 1; pass <= mPasses; pass++) {
+            boolean last = (pass == mPasses);
+            PrintWriter csv = (last && mCsvPath != null) ?
+                    new PrintWriter(new FileWriter(mCsvPath)) : null;
+            try {
+                FrameProfiler profiler = new FrameProfiler();
+                int frames = replay(session, profiler, csv);
+                System.out.println("Pass " + pass + ": " + frames + " frames");
+                if (last) {
+                    System.out.print(profiler.dump());
+                }
+            } finally {
+                if (csv != null) {
+                    csv.close();
+                }
+            }
+        }
+    }
+
+    private int replay(byte[] session, FrameProfiler profiler, PrintWriter csv)
+            throws IOException {
+        SessionPlayer player = new SessionPlayer(new ByteArrayInputStream(session));
+        BallSimulation simulation = new BallSimulation(player.getCountdownTo(),
+                player.getSeed());
+        if (mBroadphase >= 0) {
+            simulation.setBroadphase(mBroadphase);
+        }
+        if (mStepRate >= 0) {
+            simulation.setFixedStepRate(mStepRate);
+        }
+        simulation.setContinuousCollisions(mContinuousCollisions);
+        simulation.setThreadCount(mThreads);
+        simulation.setProfiler(profiler);
+
+        if (csv != null) {
+            csv.println("frame,time_ns,update_ns,balls,awake");
+        }
+
+        int frames = 0;
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                if (!player.playFrame(simulation)) {
+                    break;
+                }
+                long elapsed = profiler.add(FrameProfiler.PHASE_FRAME, start) - start;
+                profiler.endFrame();
+
+                if (csv != null) {
+                    csv.println(frames + "," + player.getFrameNanos() + "," + elapsed + "," +
+                            simulation.getAnimatingBalls().size() + "," +
+                            simulation.getAnimatingBalls().countAwake());
+                }
+                frames++;
+            }
+        } finally {
+            simulation.setThreadCount(1);
+            player.close();
+        }
+        return frames;
+    }
+
+    private static byte[] readFully(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
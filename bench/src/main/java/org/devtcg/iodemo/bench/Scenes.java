@@ -0,0 +1,63 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.BallSimulation;
+import org.devtcg.iodemo.sim.BallStore;
+
+import java.util.Random;
+
+/**
+ * Canned simulation setups shared by the benchmarks.
+ */
+final class Scenes {
+    /* Roughly a 10" tablet in landscape. */
+    public static final int SURFACE_WIDTH = 1280;
+    public static final int SURFACE_HEIGHT = 800;
+
+    /* Far enough in the future that the countdown never hits zero. */
+    public static final long COUNTDOWN_TO = 4102444800000L;
+
+    private Scenes() {
+    }
+
+    /**
+     * Create a sized simulation with room for {@code capacity} animating
+     * balls.
+     */
+    public static BallSimulation newSimulation(long seed, int capacity) {
+        BallSimulation simulation = new BallSimulation(COUNTDOWN_TO, seed, capacity);
+        simulation.setSurfaceSize(SURFACE_WIDTH, SURFACE_HEIGHT);
+        return simulation;
+    }
+
+    /**
+     * Scatter {@code count} balls with random positions and velocities (in
+     * the same range a digit change would produce) across the surface.
+     */
+    public static void scatterBalls(BallSimulation simulation, int count, long seed) {
+        Random random = new Random(seed);
+        BallStore balls = simulation.getAnimatingBalls();
+        float radius = simulation.getBallRadius();
+        balls.clear();
+        for (int i = 0; i < count; i++) {
+            float x = radius + random.nextFloat() * (SURFACE_WIDTH - radius * 2);
+            float y = radius + random.nextFloat() * (SURFACE_HEIGHT - radius * 2);
+            int ball = balls.add(x, y, radius, (byte)(1 + random.nextInt(BallStore.NUM_COLORS - 1)));
+            balls.dx[ball] = (random.nextFloat() * 2.4f - 1.2f) * radius;
+            balls.dy[ball] = (random.nextFloat() - 0.8f) * radius;
+        }
+    }
+
+    /**
+     * Copies every ball attribute from one store to another of at least the
+     * same capacity, so a benchmark can restore a scene between invocations.
+     */
+    public static void copyBalls(BallStore from, BallStore to) {
+        int N = from.size();
+        to.clear();
+        for (int i = 0; i < N; i++) {
+            int ball = to.add(from.x[i], from.y[i], from.radius[i], from.color[i]);
+            to.dx[ball] = from.dx[i];
+            to.dy[ball] = from.dy[i];
+        }
+    }
+}
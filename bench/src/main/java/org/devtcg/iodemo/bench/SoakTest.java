@@ -0,0 +1,191 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.BallSimulation;
+import org.devtcg.iodemo.sim.SoakReport;
+import org.devtcg.iodemo.sim.StressDriver;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Headless stress run: spawns glyphs at a steady or climbing rate while the
+ * countdown ticks, and reports how many balls the simulation sustained within
+ * a frame time budget, along with GC and allocation figures for the run.
+ *
+ * <pre>
+ *   java -cp target/benchmarks.jar org.devtcg.iodemo.bench.SoakTest \
+ *       [--seconds N] [--rate N] [--ramp N] [--target-ms N] [--capacity N] \
+ *       [--broadphase N] [--step-rate N] [--threads N] [--require-balls N]
+ * </pre>
+ *
+ * Time inside the simulation advances by exactly one 60 Hz frame per frame,
+ * however long the frame actually took, so every run sees the same sequence
+ * of spawns and clock ticks; only the measured frame times vary. With
+ * {@code --require-balls} the exit status is 1 unless at least that many
+ * balls were sustained, so a release can be gated on it.
+ */
+public class SoakTest {
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    /* Two days out, so every digit gets a workout. */
+    private static final long START_MILLIS = Scenes.COUNTDOWN_TO - 2L * 24 * 3600 * 1000;
+
+    private int mSeconds = 120;
+    private float mRate = 2f;
+    private float mRamp = 0.5f;
+    private float mTargetMillis = 16f;
+    private int mCapacity = 20000;
+    private int mBroadphase = -1;
+    private int mStepRate = -1;
+    private int mThreads = 1;
+    private int mRequireBalls;
+
+    /* Collections seen (and their total and longest duration) while running. */
+    private final AtomicLong mGcCount = new AtomicLong();
+    private final AtomicLong mGcMillis = new AtomicLong();
+    private final AtomicLong mGcMaxMillis = new AtomicLong();
+
+    public static void main(String[] args) {
+        SoakTest test = new SoakTest();
+        if (!test.parseArgs(args)) {
+            System.err.println("Usage: SoakTest [--seconds N] [--rate N] [--ramp N] " +
+                    "[--target-ms N] [--capacity N] [--broadphase N] [--step-rate N] " +
+                    "[--threads N] [--require-balls N]");
+            System.exit(2);
+        }
+        System.exit(test.run() ? 0 : 1);
+    }
+
+    private boolean parseArgs(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String arg = args[i];
+            String value = args[i + 1];
+            if (arg.equals("--seconds")) {
+                mSeconds = Integer.parseInt(value);
+            } else if (arg.equals("--rate")) {
+                mRate = Float.parseFloat(value);
+            } else if (arg.equals("--ramp")) {
+                mRamp = Float.parseFloat(value);
+            } else if (arg.equals("--target-ms")) {
+                mTargetMillis = Float.parseFloat(value);
+            } else if (arg.equals("--capacity")) {
+                mCapacity = Integer.parseInt(value);
+            } else if (arg.equals("--broadphase")) {
+                mBroadphase = Integer.parseInt(value);
+            } else if (arg.equals("--step-rate")) {
+                mStepRate = Integer.parseInt(value);
+            } else if (arg.equals("--threads")) {
+                mThreads = Integer.parseInt(value);
+            } else if (arg.equals("--require-balls")) {
+                mRequireBalls = Integer.parseInt(value);
+            } else {
+                return false;
+            }
+        }
+        return args.length % 2 == 0 && mSeconds > 0;
+    }
+
+    /**
+     * @return False if fewer than the required balls were sustained.
+     */
+    private boolean run() {
+        BallSimulation simulation = Scenes.newSimulation(1, mCapacity);
+        if (mBroadphase >= 0) {
+            simulation.setBroadphase(mBroadphase);
+        }
+        if (mStepRate >= 0) {
+            simulation.setFixedStepRate(mStepRate);
+        }
+        simulation.setThreadCount(mThreads);
+
+        StressDriver driver = new StressDriver(mRate, mRamp, 2);
+        driver.setSurfaceSize(Scenes.SURFACE_WIDTH, Scenes.SURFACE_HEIGHT);
+        SoakReport report = new SoakReport((long)(mTargetMillis * 1000000L));
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = getAllocatedBytes(threads, threadId);
+        listenForGc();
+
+        long frames = mSeconds * 1000000000L / FRAME_NANOS;
+        long nanos = 0;
+        long wallStart = System.nanoTime();
+        try {
+            for (long frame = 0; frame < frames; frame++) {
+                nanos += FRAME_NANOS;
+                long start = System.nanoTime();
+                driver.drive(simulation, nanos);
+                simulation.update(START_MILLIS + nanos / 1000000L, nanos);
+                report.recordFrame(System.nanoTime() - start,
+                        simulation.getAnimatingBalls().size());
+            }
+        } finally {
+            simulation.setThreadCount(1);
+        }
+        double wallSeconds = (System.nanoTime() - wallStart) / 1000000000.0;
+        long allocated = getAllocatedBytes(threads, threadId) - allocatedBefore;
+
+        System.out.printf("%d s simulated in %.1f s, spawn rate %.1f -> %.1f glyphs/s\n",
+                mSeconds, wallSeconds, mRate, driver.getRate(nanos));
+        System.out.print(report.format());
+        System.out.printf("gc           %d collections, %d ms total, %d ms max\n",
+                mGcCount.get(), mGcMillis.get(), mGcMaxMillis.get());
+        if (allocated >= 0) {
+            System.out.printf("allocation   %.1f KB/s wall, %.1f KB per frame\n",
+                    allocated / 1024.0 / wallSeconds, allocated / 1024.0 / frames);
+        }
+
+        if (mRequireBalls > 0 && report.getMaxSustainedBalls() < mRequireBalls) {
+            System.out.printf("FAIL: sustained %d balls at %.1f ms, required %d\n",
+                    report.getMaxSustainedBalls(), mTargetMillis, mRequireBalls);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Bytes allocated by a thread so far, or -1 if the JVM can't tell.
+     */
+    private static long getAllocatedBytes(ThreadMXBean threads, long threadId) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threadId);
+        }
+        return -1;
+    }
+
+    private void listenForGc() {
+        NotificationListener listener = new NotificationListener() {
+            public void handleNotification(Notification notification, Object handback) {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(
+                        notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                        (CompositeData)notification.getUserData());
+                long millis = info.getGcInfo().getDuration();
+                mGcCount.incrementAndGet();
+                mGcMillis.addAndGet(millis);
+                long max;
+                while (millis > (max = mGcMaxMillis.get())) {
+                    if (mGcMaxMillis.compareAndSet(max, millis)) {
+                        break;
+                    }
+                }
+            }
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter)gc).addNotificationListener(listener, null, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BallStoreTest {
+    private static final float RADIUS = 5f;
+
+    @Test
+    public void sweptTestCoversLongerSteps() {
+        BallStore balls = new BallStore(2);
+
+        /* 30 apart, closing at 8 per reference step: they touch after 3.75. */
+        int a = balls.add(100f, 100f, RADIUS, BallStore.COLOR_GRAY);
+        int b = balls.add(140f, 100f, RADIUS, BallStore.COLOR_GRAY);
+        balls.dx[a] = 4f;
+        balls.dx[b] = -4f;
+
+        assertFalse(balls.colliding(a, b, 1f));
+        assertFalse(balls.colliding(a, b, 2f));
+        assertFalse(balls.colliding(a, b, 3f));
+        assertTrue(balls.colliding(a, b, 4f));
+    }
+
+    @Test
+    public void overlappingBallsCollideWhateverTheStep() {
+        BallStore balls = new BallStore(2);
+        int a = balls.add(100f, 100f, RADIUS, BallStore.COLOR_GRAY);
+        int b = balls.add(108f, 100f, RADIUS, BallStore.COLOR_GRAY);
+        assertTrue(balls.colliding(a, b, 0.5f));
+        assertTrue(balls.colliding(a, b, 2f));
+    }
+
+    @Test
+    public void awakeBallsBounceElastically() {
+        BallStore balls = new BallStore(2);
+        int a = balls.add(100f, 100f, RADIUS, BallStore.COLOR_GRAY);
+        int b = balls.add(109f, 100f, RADIUS, BallStore.COLOR_GRAY);
+        balls.dx[a] = 0.2f;
+        balls.dx[b] = -0.2f;
+
+        balls.resolveCollision(a, b);
+
+        /* However gentle, the contact swaps their speeds rather than damping them. */
+        assertEquals(-0.2f, balls.dx[a], 1e-6f);
+        assertEquals(0.2f, balls.dx[b], 1e-6f);
+    }
+
+    @Test
+    public void exactlyTouchingBallsStayFinite() {
+        BallStore balls = new BallStore(2);
+        int a = balls.add(100f, 100f, RADIUS, BallStore.COLOR_GRAY);
+        int b = balls.add(100f, 100f + RADIUS * 2, RADIUS, BallStore.COLOR_GRAY);
+        balls.dy[a] = 1f;
+
+        balls.resolveCollision(a, b);
+
+        assertEquals(-0f, balls.dy[a], 1e-6f);
+        assertEquals(1f, balls.dy[b], 1e-6f);
+    }
+
+    @Test
+    public void floorKickSparesOnlySleepCandidates() {
+        IntegrateKernel.Step step = new IntegrateKernel.Step();
+        step.velocityScale = 1f;
+        step.height = 800f;
+        step.minBounceSpeed = RADIUS;
+        step.bounceFactor = 0.5f;
+        step.sleepSpeed = RADIUS * 0.05f;
+        step.move = true;
+
+        BallStore balls = new BallStore(2);
+        int fresh = balls.add(100f, 799.5f, RADIUS, BallStore.COLOR_GRAY);
+        int resting = balls.add(200f, 799.5f, RADIUS, BallStore.COLOR_GRAY);
+        balls.dy[fresh] = 1f;
+        balls.dy[resting] = 1f;
+        balls.restCount[resting] = 3;
+
+        new ScalarIntegrateKernel().integrate(balls, 0, 2, step);
+
+        /* Landing straight down, a ball still gets kicked back up... */
+        assertEquals(-RADIUS * 0.5f, balls.dy[fresh], 1e-6f);
+        assertTrue(balls.restCount[fresh] > 0);
+        /* ...unless it's already on its way to sleep. */
+        assertEquals(-0.5f, balls.dy[resting], 1e-6f);
+    }
+}
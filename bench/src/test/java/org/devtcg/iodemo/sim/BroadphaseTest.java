@@ -0,0 +1,169 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * The grid and sweep-and-prune broadphases miss no pair that the all-pairs
+ * check would find, and report no pair twice.
+ */
+public class BroadphaseTest {
+    private static final float RADIUS = 5f;
+    private static final int SIZE = 400;
+    private static final int COUNT = 800;
+
+    @Test
+    public void broadphasesFindTheSameOverlaps() {
+        BallStore balls = scatter(new Random(1), COUNT);
+        SweepAndPrune sweep = new SweepAndPrune();
+
+        Set<Long> expected = allPairs(balls);
+        assertFalse("scene has no overlaps", expected.isEmpty());
+        assertEquals(expected, overlapping(balls, gridPairs(balls)));
+        assertEquals(expected, overlapping(balls, sweepPairs(balls, sweep, 0f)));
+    }
+
+    @Test
+    public void sweepKeepsUpWithMovesAndRemovals() {
+        Random random = new Random(2);
+        BallStore balls = scatter(random, COUNT);
+        SweepAndPrune sweep = new SweepAndPrune();
+        sweepPairs(balls, sweep, 0f);
+
+        /* Small moves exercise the incremental re-sort. */
+        for (int step = 0; step < 10; step++) {
+            for (int i = 0; i < balls.size(); i++) {
+                balls.x[i] += (random.nextFloat() - 0.5f) * RADIUS;
+                balls.y[i] += (random.nextFloat() - 0.5f) * RADIUS;
+            }
+            assertEquals(allPairs(balls), overlapping(balls, sweepPairs(balls, sweep, 0f)));
+        }
+
+        /* Drop every third ball, as pruning balls off screen would. */
+        int N = balls.size();
+        int[] newIndex = new int[N];
+        int live = 0;
+        for (int i = 0; i < N; i++) {
+            if (i % 3 == 0) {
+                newIndex[i] = -1;
+            } else {
+                balls.copy(i, live);
+                newIndex[i] = live++;
+            }
+        }
+        balls.truncate(live);
+        sweep.remap(newIndex, N);
+        assertEquals(allPairs(balls), overlapping(balls, sweepPairs(balls, sweep, 0f)));
+
+        /* And add a batch, as a spawned glyph would. */
+        for (int i = 0; i < 100; i++) {
+            addBall(balls, random);
+        }
+        assertEquals(allPairs(balls), overlapping(balls, sweepPairs(balls, sweep, 0f)));
+    }
+
+    @Test
+    public void sweptExtentsCoverSweptCollisions() {
+        BallStore balls = scatter(new Random(3), COUNT);
+        float scale = 2f;
+        Set<Long> candidates = sweepPairs(balls, new SweepAndPrune(), scale);
+
+        int N = balls.size();
+        for (int i = 0; i < N; i++) {
+            for (int j = i + 1; j < N; j++) {
+                if ((!balls.asleep[i] || !balls.asleep[j]) && balls.colliding(i, j, scale)) {
+                    assertTrue(i + "," + j, candidates.contains(key(i, j)));
+                }
+            }
+        }
+    }
+
+    private static BallStore scatter(Random random, int count) {
+        BallStore balls = new BallStore(count * 2);
+        for (int i = 0; i < count; i++) {
+            addBall(balls, random);
+        }
+        return balls;
+    }
+
+    private static void addBall(BallStore balls, Random random) {
+        int ball = balls.add(random.nextFloat() * SIZE, random.nextFloat() * SIZE, RADIUS,
+                BallStore.COLOR_GRAY);
+        balls.dx[ball] = (random.nextFloat() - 0.5f) * RADIUS * 2;
+        balls.dy[ball] = (random.nextFloat() - 0.5f) * RADIUS * 2;
+        balls.asleep[ball] = random.nextInt(4) == 0;
+    }
+
+    private static Set<Long> allPairs(BallStore balls) {
+        Set<Long> pairs = new TreeSet<Long>();
+        int N = balls.size();
+        for (int i = 0; i < N; i++) {
+            for (int j = i + 1; j < N; j++) {
+                if ((!balls.asleep[i] || !balls.asleep[j]) && overlap(balls, i, j)) {
+                    pairs.add(key(i, j));
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static Set<Long> gridPairs(BallStore balls) {
+        SpatialHashGrid grid = new SpatialHashGrid();
+        int N = balls.size();
+        grid.begin(RADIUS * 2, N);
+        for (int i = 0; i < N; i++) {
+            grid.insert(i, balls.x[i], balls.y[i]);
+        }
+        PairBuffer out = new PairBuffer(N);
+        grid.findPairs(out, balls.asleep);
+        return collect(balls, out);
+    }
+
+    private static Set<Long> sweepPairs(BallStore balls, SweepAndPrune sweep, float scale) {
+        PairBuffer out = new PairBuffer(balls.size());
+        sweep.findPairs(balls, out, scale);
+        return collect(balls, out);
+    }
+
+    private static Set<Long> collect(BallStore balls, PairBuffer out) {
+        Set<Long> pairs = new TreeSet<Long>();
+        for (int k = 0; k < out.size(); k++) {
+            int a = out.getFirst(k);
+            int b = out.getSecond(k);
+            assertFalse("pair with itself", a == b);
+            assertFalse("both asleep", balls.asleep[a] && balls.asleep[b]);
+            assertTrue("duplicate pair " + a + "," + b, pairs.add(key(a, b)));
+        }
+        return pairs;
+    }
+
+    private static Set<Long> overlapping(BallStore balls, Set<Long> candidates) {
+        Set<Long> pairs = new TreeSet<Long>();
+        for (Long pair : candidates) {
+            int a = (int)(pair >> 32);
+            int b = (int)(long)pair;
+            if (overlap(balls, a, b)) {
+                pairs.add(pair);
+            }
+        }
+        return pairs;
+    }
+
+    private static boolean overlap(BallStore balls, int a, int b) {
+        float dx = balls.x[b] - balls.x[a];
+        float dy = balls.y[b] - balls.y[a];
+        float r = balls.radius[a] + balls.radius[b];
+        return dx * dx + dy * dy < r * r;
+    }
+
+    private static long key(int a, int b) {
+        return ((long)Math.min(a, b) << 32) | Math.max(a, b);
+    }
+}
@@ -0,0 +1,128 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * At a low fixed step rate, fast balls pass straight through each other
+ * unless collisions are found by time of impact.
+ */
+public class ContinuousCollisionTest {
+    /* 4 frames' worth of movement per step. */
+    private static final int STEP_RATE = 15;
+    private static final long STEP_NANOS = 1000000000L / STEP_RATE;
+
+    /* Mid-second, so no digit changes while the test runs. */
+    private static final long NOW_MILLIS = TestScenes.START_MILLIS + 500;
+
+    private static final float RADIUS = 6f;
+    private static final float Y = 400f;
+
+    /*
+     * 48 pixels a step each, so the pair closes 96 pixels in one step: from
+     * 80 apart they finish 16 apart on the wrong sides, never having
+     * overlapped at the end of a step.
+     */
+    private static final float SPEED = 12f;
+    private static final float LEFT = 200f;
+    private static final float RIGHT = 280f;
+
+    /* 2 pixels a step, enough to close the gap between neighbours in a row. */
+    private static final float ROW_SPEED = 0.5f;
+    private static final float ROW_GAP = 1f;
+
+    @Test
+    public void fastPairTunnelsWithoutContinuousCollisions() {
+        BallSimulation simulation = newSimulation(false);
+        BallStore balls = simulation.getAnimatingBalls();
+        addHeadOnPair(balls);
+        step(simulation);
+
+        assertEquals(2, balls.size());
+        assertTrue("balls should have passed through each other", balls.x[0] > balls.x[1]);
+        assertEquals(SPEED, balls.dx[0], 0f);
+        assertEquals(-SPEED, balls.dx[1], 0f);
+    }
+
+    @Test
+    public void fastPairBouncesWithContinuousCollisions() {
+        BallSimulation simulation = newSimulation(true);
+        BallStore balls = simulation.getAnimatingBalls();
+        addHeadOnPair(balls);
+        step(simulation);
+
+        assertEquals(2, balls.size());
+        assertTrue("balls should have bounced", balls.x[0] < balls.x[1]);
+        assertEquals(-SPEED, balls.dx[0], 1e-4f);
+        assertEquals(SPEED, balls.dx[1], 1e-4f);
+        assertTrue(balls.x[1] - balls.x[0] >= 2 * RADIUS);
+    }
+
+    /**
+     * A fast ball driven into a row of nearly touching balls makes one
+     * impact per ball within a single step, each handing its speed to the
+     * next, which is more impacts than the search allows. The row drifts
+     * just fast enough for neighbours to be candidate pairs, so uncapped the
+     * speed would run all the way to the far end. Capped, the step still
+     * finishes, what is left is pushed apart as overlap, and the far end
+     * never hears about it.
+     */
+    @Test(timeout = 10000)
+    public void impactSearchStopsAtIterationCap() {
+        BallSimulation simulation = newSimulation(true);
+        BallStore balls = simulation.getAnimatingBalls();
+        int count = BallSimulation.MAX_TOI_ITERATIONS * 2;
+        float x = 100f;
+        for (int i = 0; i < count; i++) {
+            balls.add(x, Y, RADIUS, BallStore.COLOR_GRAY);
+            balls.dx[i] = ROW_SPEED;
+            x += 2 * RADIUS + ROW_GAP;
+        }
+        balls.dx[0] = SPEED;
+        step(simulation);
+
+        assertEquals(count, balls.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue("ball " + i + " not finite",
+                    isFinite(balls.x[i]) && isFinite(balls.dx[i]));
+        }
+        assertEquals(ROW_SPEED, balls.dx[count - 1], 0f);
+    }
+
+    private static BallSimulation newSimulation(boolean continuousCollisions) {
+        BallSimulation simulation = TestScenes.newSimulation(1);
+        simulation.setGravity(0, 0);
+        simulation.setFixedStepRate(STEP_RATE);
+        simulation.setContinuousCollisions(continuousCollisions);
+
+        /*
+         * Starts the clock. Filling in its digits releases balls; no step has
+         * run yet, so they can simply be dropped to leave only the test's.
+         */
+        simulation.update(NOW_MILLIS, 0);
+        simulation.getAnimatingBalls().clear();
+        return simulation;
+    }
+
+    private static void addHeadOnPair(BallStore balls) {
+        balls.add(LEFT, Y, RADIUS, BallStore.COLOR_GRAY);
+        balls.add(RIGHT, Y, RADIUS, BallStore.COLOR_GRAY);
+        balls.dx[0] = SPEED;
+        balls.dx[1] = -SPEED;
+    }
+
+    /**
+     * Run exactly one fixed step: one frame for the simulation to notice the
+     * new balls, then one a step later.
+     */
+    private static void step(BallSimulation simulation) {
+        simulation.update(NOW_MILLIS + 1, 1000000L);
+        simulation.update(NOW_MILLIS + 1 + STEP_NANOS / 1000000, 1000000L + STEP_NANOS);
+    }
+
+    private static boolean isFinite(float value) {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+}
@@ -0,0 +1,101 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Pacing, resynchronizing after a stall, and idling until a deadline or a
+ * wake-up. These run against the real clock, so they only bound times from
+ * below tightly; the upper bounds leave room for a busy machine.
+ */
+public class FrameSchedulerTest {
+    private static final int FPS = 60;
+    private static final long FRAME_NANOS = 1000000000L / FPS;
+    private static final long MILLIS = 1000000L;
+
+    @Test(timeout = 10000)
+    public void pacesFrames() {
+        FrameScheduler scheduler = new FrameScheduler(FPS);
+        /* The first frame is due at once. */
+        scheduler.awaitFrame();
+
+        int frames = 30;
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            scheduler.awaitFrame();
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue("too fast: " + elapsed, elapsed >= (frames - 1) * FRAME_NANOS);
+        assertTrue("too slow: " + elapsed, elapsed < 2 * frames * FRAME_NANOS);
+    }
+
+    @Test(timeout = 10000)
+    public void unpacedNeverWaits() {
+        FrameScheduler scheduler = new FrameScheduler(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            scheduler.awaitFrame();
+        }
+        assertTrue(System.nanoTime() - start < FRAME_NANOS * 10);
+    }
+
+    @Test(timeout = 10000)
+    public void resynchronizesAfterStall() throws InterruptedException {
+        FrameScheduler scheduler = new FrameScheduler(FPS);
+        scheduler.awaitFrame();
+        scheduler.awaitFrame();
+        Thread.sleep(6 * FRAME_NANOS / MILLIS);
+
+        /* Late already, so this one is due at once... */
+        scheduler.awaitFrame();
+        long late = System.nanoTime();
+
+        /* ...but the missed frames aren't made up with a burst. */
+        scheduler.awaitFrame();
+        assertTrue(System.nanoTime() - late >= FRAME_NANOS - MILLIS);
+    }
+
+    @Test(timeout = 10000)
+    public void idlesUntilDeadline() {
+        FrameScheduler scheduler = new FrameScheduler(FPS);
+        long start = System.nanoTime();
+        assertFalse(scheduler.awaitIdle(start + 20 * MILLIS));
+        assertTrue(System.nanoTime() - start >= 20 * MILLIS);
+        assertFalse(scheduler.isIdle());
+    }
+
+    @Test(timeout = 10000)
+    public void wakeCutsIdleShort() throws InterruptedException {
+        final FrameScheduler scheduler = new FrameScheduler(FPS);
+        Thread waker = new Thread(new Runnable() {
+            public void run() {
+                while (!scheduler.isIdle()) {
+                    Thread.yield();
+                }
+                scheduler.wake();
+            }
+        });
+        waker.start();
+
+        /* The timeout fails the test if the wake-up is lost. */
+        assertTrue(scheduler.awaitIdle(System.nanoTime() + 60000 * MILLIS));
+        waker.join();
+    }
+
+    @Test(timeout = 10000)
+    public void wakeWhileBusyIsKeptForNextIdle() {
+        FrameScheduler scheduler = new FrameScheduler(FPS);
+        scheduler.wake();
+        assertTrue(scheduler.awaitIdle(System.nanoTime() + 60000 * MILLIS));
+
+        /* Used up by then. */
+        assertFalse(scheduler.awaitIdle(System.nanoTime() + 10 * MILLIS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRateIsRejected() {
+        new FrameScheduler(-1);
+    }
+}
@@ -0,0 +1,101 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The filter follows a step change at its time constant whatever the sample
+ * rate, and derives pitch the way SensorManager would.
+ */
+public class GravityFilterTest {
+    private static final float G = 9.81f;
+    private static final long TIME_CONSTANT = 80000000L;
+
+    @Test
+    public void firstSampleIsTakenAsIs() {
+        GravityFilter filter = new GravityFilter(TIME_CONSTANT);
+        assertFalse(filter.hasSample());
+        filter.update(sample(1, 0, -G, 0));
+        assertTrue(filter.hasSample());
+        assertEquals(Math.PI / 2, filter.getPitch(), 1e-6);
+    }
+
+    @Test
+    public void pitchMatchesSingleSample() {
+        GravityFilter filter = new GravityFilter(0);
+        float angle = 0.3f;
+        SensorSnapshot.Sample tilted = sample(1, 0, -G * (float)Math.sin(angle),
+                G * (float)Math.cos(angle));
+        filter.update(tilted);
+        assertEquals(angle, filter.getPitch(), 1e-5);
+        assertEquals(angle, GravityFilter.getPitch(tilted), 1e-5);
+    }
+
+    @Test
+    public void stepResponseIsIndependentOfSampleRate() {
+        /* One time constant in, about 1 - 1/e of the way there. */
+        float fine = stepResponse(1000000L);
+        float coarse = stepResponse(4000000L);
+        assertEquals(1 - 1 / Math.E, fine / G, 0.01);
+        assertEquals(fine, coarse, G * 0.01f);
+    }
+
+    @Test
+    public void repeatedSampleIsIgnored() {
+        GravityFilter filter = new GravityFilter(TIME_CONSTANT);
+        filter.update(sample(1, 0, 0, G));
+        filter.update(sample(1, 0, -G, 0));
+        assertEquals(0f, filter.getPitch(), 0f);
+    }
+
+    @Test
+    public void freeFallKeepsLastPitch() {
+        GravityFilter filter = new GravityFilter(0);
+        filter.update(sample(1, 0, -G, 0));
+        float pitch = filter.getPitch();
+
+        SensorSnapshot.Sample falling = sample(2, 0, 0, 0);
+        filter.update(falling);
+        assertEquals(pitch, filter.getPitch(), 0f);
+        assertTrue(Float.isNaN(GravityFilter.getPitch(falling)));
+    }
+
+    @Test
+    public void resetTakesNextSampleAsIs() {
+        GravityFilter filter = new GravityFilter(TIME_CONSTANT);
+        filter.update(sample(1, G, 0, 0));
+        filter.reset();
+        assertFalse(filter.hasSample());
+        assertEquals(0f, filter.getPitch(), 0f);
+
+        filter.update(sample(2, -G, 0, 0));
+        assertEquals(-G, filter.getX(), 0f);
+    }
+
+    /**
+     * Lie flat, then tip onto the x axis and sample every {@code interval}
+     * for one time constant.
+     *
+     * @return The filtered x reading.
+     */
+    private static float stepResponse(long interval) {
+        GravityFilter filter = new GravityFilter(TIME_CONSTANT);
+        filter.update(sample(0, 0, 0, G));
+        for (long t = interval; t <= TIME_CONSTANT; t += interval) {
+            filter.update(sample(t, G, 0, 0));
+        }
+        return filter.getX();
+    }
+
+    private static SensorSnapshot.Sample sample(long timestamp, float x, float y, float z) {
+        SensorSnapshot.Sample sample = new SensorSnapshot.Sample();
+        sample.gravityX = x;
+        sample.gravityY = y;
+        sample.gravityZ = z;
+        sample.timestamp = timestamp;
+        return sample;
+    }
+}
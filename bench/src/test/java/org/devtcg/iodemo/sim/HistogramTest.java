@@ -0,0 +1,114 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HistogramTest {
+    @Test
+    public void emptyHistogramReportsZero() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 10; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(10, histogram.getMax());
+        assertEquals(5.5, histogram.getMean(), 1e-9);
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(9, histogram.getValueAtPercentile(90));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(1);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            /* Frame times from 100 us to 100 ms, in ns. */
+            values[i] = 100000L + (long)(random.nextDouble() * random.nextDouble() * 1e8);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        double[] percentiles = { 1, 10, 50, 90, 99, 99.9, 100 };
+        for (double percentile : percentiles) {
+            int rank = (int)Math.ceil(values.length * percentile / 100) - 1;
+            long exact = values[Math.max(rank, 0)];
+            long reported = histogram.getValueAtPercentile(percentile);
+            String message = "p" + percentile + " exact=" + exact + " reported=" + reported;
+            /* Reported as the top of the value's bucket, 1/16 of a power of two wide. */
+            assertTrue(message, reported >= exact);
+            assertTrue(message, reported <= exact + exact / 16);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtPercentile(100));
+
+        long huge = 1L << 50;
+        histogram.record(huge);
+        assertEquals(huge, histogram.getMax());
+        assertEquals(huge, histogram.getValueAtPercentile(100));
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        histogram.record(2000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+
+        histogram.record(7);
+        assertEquals(7, histogram.getValueAtPercentile(50));
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long base = (t + 1) * 1000L;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(base + i % 100);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threads.length * perThread, histogram.getCount());
+        assertEquals(threads.length * 1000L + 99, histogram.getMax());
+    }
+}
@@ -0,0 +1,57 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+
+import org.devtcg.iodemo.sim.NumberFont.Glyph;
+import org.junit.Test;
+
+/**
+ * The precomputed transition masks agree with comparing the two digits cell
+ * by cell, for every pair of digits.
+ */
+public class NumberFontTest {
+    @Test
+    public void transitionMasksMatchCells() {
+        for (int from = 0; from < 10; from++) {
+            Glyph fromGlyph = NumberFont.sFont[from];
+            for (int to = 0; to < 10; to++) {
+                Glyph toGlyph = NumberFont.sFont[to];
+                int turnedOff = 0;
+                int turnedOn = 0;
+                for (int y = 0; y < NumberFont.CONSTANT_HEIGHT; y++) {
+                    for (int x = 0; x < NumberFont.CONSTANT_WIDTH; x++) {
+                        boolean wasLit = fromGlyph.isLit(x, y);
+                        boolean isLit = toGlyph.isLit(x, y);
+                        if (wasLit && !isLit) {
+                            turnedOff |= 1 << NumberFont.bit(x, y);
+                        } else if (isLit && !wasLit) {
+                            turnedOn |= 1 << NumberFont.bit(x, y);
+                        }
+                    }
+                }
+                String transition = from + " -> " + to;
+                assertEquals(transition, turnedOff, NumberFont.getTurnedOff(from, to));
+                assertEquals(transition, turnedOn, NumberFont.getTurnedOn(from, to));
+            }
+        }
+    }
+
+    @Test
+    public void masksOnlyUseGlyphCells() {
+        int cells = (1 << NumberFont.CELL_COUNT) - 1;
+        for (int digit = 0; digit < 10; digit++) {
+            int mask = NumberFont.sFont[digit].getMask();
+            assertEquals("digit " + digit, 0, mask & ~cells);
+
+            int lit = 0;
+            for (int y = 0; y < NumberFont.CONSTANT_HEIGHT; y++) {
+                for (int x = 0; x < NumberFont.CONSTANT_WIDTH; x++) {
+                    if (NumberFont.sFont[digit].isLit(x, y)) {
+                        lit++;
+                    }
+                }
+            }
+            assertEquals("digit " + digit, Integer.bitCount(mask), lit);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.devtcg.iodemo.sim;
+
+import org.junit.Test;
+
+/**
+ * A seeded scene steps bit for bit the same whatever the thread count and
+ * however the worker threads happen to be scheduled.
+ * <p>
+ * One thread takes the single threaded path, which resolves pairs in
+ * broadphase order rather than strip by strip, so it is only compared with
+ * itself; see {@link BallSimulation#setThreadCount}.
+ */
+public class ParallelStepTest {
+    private static final long SEED = 3;
+    private static final int FRAMES = 600;
+
+    @Test
+    public void singleThreadIsRepeatable() {
+        TestScenes.assertSameScene(run(1), run(1));
+    }
+
+    @Test
+    public void sameThreadCountIsRepeatable() {
+        TestScenes.assertSameScene(run(4), run(4));
+    }
+
+    @Test
+    public void threadCountDoesNotChangeResults() {
+        BallSimulation expected = run(2);
+        int[] threadCounts = { 3, 4, 8 };
+        for (int threads : threadCounts) {
+            TestScenes.assertSameScene(expected, run(threads));
+        }
+    }
+
+    private static BallSimulation run(int threads) {
+        BallSimulation simulation = TestScenes.newSimulation(SEED);
+        simulation.setThreadCount(threads);
+        try {
+            /* Often enough that piles span strip boundaries. */
+            new TestScenes.FrameDriver(5).run(FRAMES, simulation);
+        } finally {
+            /* Stops the workers; the finished scene stays as it is. */
+            simulation.setThreadCount(1);
+        }
+        return simulation;
+    }
+}
@@ -0,0 +1,117 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Quality is shed and restored one level at a time, in response to whole
+ * windows of synthetic frame times.
+ */
+public class QualityGovernorTest {
+    private static final long BUDGET = 16000000L;
+
+    /* Over budget, within budget, and well under it. */
+    private static final long SLOW = 20000000L;
+    private static final long OK = 12000000L;
+    private static final long FAST = 5000000L;
+
+    @Test
+    public void shedsOnlyPastSlowFrameThreshold() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        assertFalse(recordWindow(governor, QualityGovernor.MAX_SLOW_FRAMES, OK));
+        assertEquals(QualityGovernor.LEVEL_FULL, governor.getLevel());
+
+        assertTrue(recordWindow(governor, QualityGovernor.MAX_SLOW_FRAMES + 1, OK));
+        assertEquals(QualityGovernor.LEVEL_HALF_STEP_RATE, governor.getLevel());
+    }
+
+    @Test
+    public void changesOnlyOnWindowBoundaries() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        for (int i = 0; i < QualityGovernor.WINDOW_FRAMES - 1; i++) {
+            assertFalse(governor.recordFrame(SLOW));
+        }
+        assertEquals(QualityGovernor.LEVEL_FULL, governor.getLevel());
+        assertTrue(governor.recordFrame(SLOW));
+    }
+
+    @Test
+    public void skipsWindowAfterChange() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        assertTrue(recordWindow(governor, QualityGovernor.WINDOW_FRAMES, OK));
+
+        /* Still slow, but this window only shows the change taking effect. */
+        assertFalse(recordWindow(governor, QualityGovernor.WINDOW_FRAMES, OK));
+        assertEquals(QualityGovernor.LEVEL_HALF_STEP_RATE, governor.getLevel());
+
+        assertTrue(recordWindow(governor, QualityGovernor.WINDOW_FRAMES, OK));
+        assertEquals(QualityGovernor.LEVEL_ALTERNATE_BROADPHASE, governor.getLevel());
+    }
+
+    @Test
+    public void restoresAfterEnoughFastWindowsInARow() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        assertTrue(recordWindow(governor, QualityGovernor.WINDOW_FRAMES, OK));
+        recordWindow(governor, 0, FAST);
+
+        /* A window within budget but without headroom starts the count over. */
+        for (int i = 0; i < QualityGovernor.RESTORE_WINDOWS - 1; i++) {
+            assertFalse(recordWindow(governor, 0, FAST));
+        }
+        assertFalse(recordWindow(governor, 0, OK));
+
+        for (int i = 0; i < QualityGovernor.RESTORE_WINDOWS - 1; i++) {
+            assertFalse(recordWindow(governor, 0, FAST));
+        }
+        assertEquals(QualityGovernor.LEVEL_HALF_STEP_RATE, governor.getLevel());
+        assertTrue(recordWindow(governor, 0, FAST));
+        assertEquals(QualityGovernor.LEVEL_FULL, governor.getLevel());
+
+        /* Nothing left to restore. */
+        for (int i = 0; i < QualityGovernor.RESTORE_WINDOWS * 2; i++) {
+            assertFalse(recordWindow(governor, 0, FAST));
+        }
+        assertEquals(QualityGovernor.LEVEL_FULL, governor.getLevel());
+    }
+
+    @Test
+    public void levelIsCapped() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        int changes = 0;
+        for (int i = 0; i < QualityGovernor.LEVEL_COUNT * 4; i++) {
+            if (recordWindow(governor, QualityGovernor.WINDOW_FRAMES, OK)) {
+                changes++;
+            }
+        }
+        assertEquals(QualityGovernor.LEVEL_COUNT - 1, changes);
+        assertEquals(QualityGovernor.LEVEL_NO_ANTI_ALIAS, governor.getLevel());
+    }
+
+    @Test
+    public void resetGoesBackToFull() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        assertTrue(recordWindow(governor, QualityGovernor.WINDOW_FRAMES, OK));
+        governor.reset();
+        assertEquals(QualityGovernor.LEVEL_FULL, governor.getLevel());
+
+        /* No settling window left over from before the reset. */
+        assertTrue(recordWindow(governor, QualityGovernor.WINDOW_FRAMES, OK));
+    }
+
+    /**
+     * Record one window: {@code slowFrames} over budget, the rest taking
+     * {@code otherNanos}.
+     *
+     * @return True if the level changed at the end of the window.
+     */
+    private static boolean recordWindow(QualityGovernor governor, int slowFrames, long otherNanos) {
+        boolean changed = false;
+        for (int i = 0; i < QualityGovernor.WINDOW_FRAMES; i++) {
+            changed = governor.recordFrame(i < slowFrames ? SLOW : otherNanos);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,124 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * A session played back from its recording ends up exactly where the
+ * original did.
+ */
+public class SessionReplayTest {
+    /* Soon enough that the countdown runs out partway through. */
+    private static final long COUNTDOWN_TO = TestScenes.START_MILLIS + 5000;
+    private static final long SEED = 7;
+    private static final int FRAMES = 600;
+
+    @Test
+    public void replayMatchesRecording() throws IOException {
+        BallSimulation original = new BallSimulation(COUNTDOWN_TO, SEED);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SessionRecorder recorder = new SessionRecorder(original, out, COUNTDOWN_TO, SEED);
+        drive(recorder);
+        recorder.close();
+        assertNull(recorder.getError());
+
+        SessionPlayer player = new SessionPlayer(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(COUNTDOWN_TO, player.getCountdownTo());
+        assertEquals(SEED, player.getSeed());
+        BallSimulation replay = new BallSimulation(player.getCountdownTo(), player.getSeed());
+        int frames = 0;
+        while (player.playFrame(replay)) {
+            frames++;
+        }
+        player.close();
+
+        assertEquals(FRAMES, frames);
+        assertSameScene(original, replay);
+    }
+
+    @Test
+    public void replayStopsAtTruncatedFrame() throws IOException {
+        BallSimulation original = new BallSimulation(COUNTDOWN_TO, SEED);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SessionRecorder recorder = new SessionRecorder(original, out, COUNTDOWN_TO, SEED);
+        drive(recorder);
+        recorder.close();
+
+        /* Cut the last frame's timestamps in half, as a crash might. */
+        byte[] recording = out.toByteArray();
+        byte[] truncated = Arrays.copyOf(recording, recording.length - 1);
+
+        SessionPlayer player = new SessionPlayer(new ByteArrayInputStream(truncated));
+        BallSimulation replay = new BallSimulation(player.getCountdownTo(), player.getSeed());
+        int frames = 0;
+        while (player.playFrame(replay)) {
+            frames++;
+        }
+        assertEquals(FRAMES - 1, frames);
+    }
+
+    @Test
+    public void rejectsOtherStreams() {
+        byte[] junk = new byte[64];
+        try {
+            new SessionPlayer(new ByteArrayInputStream(junk));
+            fail("expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * Everything a session on a device might see: taps, tilting, and the
+     * quality governor changing settings partway through.
+     */
+    private static void drive(Simulation simulation) {
+        Random random = new Random(1);
+        simulation.setSurfaceSize(TestScenes.WIDTH, TestScenes.HEIGHT);
+        simulation.setGravity(0, 1);
+
+        long millis = TestScenes.START_MILLIS;
+        long nanos = 123456789L;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            if (frame % 50 == 10) {
+                simulation.spawnGlyph(40 + random.nextInt(400), 100 + random.nextInt(300));
+            }
+            if (frame % 30 == 0) {
+                simulation.setGravity(random.nextFloat() - 0.5f, 1);
+            }
+            if (frame == 200) {
+                simulation.setFixedStepRate(30);
+                simulation.setBroadphaseInterval(2);
+                simulation.setSpawnLimit(300);
+            }
+            if (frame == 400) {
+                simulation.setFixedStepRate(60);
+                simulation.setBroadphaseInterval(1);
+            }
+
+            /* Frame times jitter around 60 Hz, with the odd dropped frame. */
+            long frameNanos = 16666667L + random.nextInt(4000000) - 2000000;
+            if (random.nextInt(20) == 0) {
+                frameNanos *= 2;
+            }
+            nanos += frameNanos;
+            millis += frameNanos / 1000000;
+            simulation.update(millis, nanos);
+        }
+    }
+
+    private static void assertSameScene(BallSimulation expected, BallSimulation actual) {
+        assertEquals(expected.getClockVersion(), actual.getClockVersion());
+        assertEquals(expected.getInterpolation(), actual.getInterpolation(), 0f);
+        assertEquals(expected.getFixedStepRate(), actual.getFixedStepRate());
+        TestScenes.assertSameScene(expected, actual);
+    }
+}
@@ -0,0 +1,78 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Balls that come to rest, including ones resting on each other, go to sleep
+ * and stay asleep until something actually hits them.
+ */
+public class SleepTest {
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 800;
+
+    @Test
+    public void pileSettlesToSleep() {
+        BallSimulation simulation = dropPile(60, 2);
+        BallStore balls = simulation.getAnimatingBalls();
+        assertFalse(balls.isEmpty());
+        assertEquals(0, balls.countAwake());
+    }
+
+    @Test
+    public void pileSettlesToSleepAtHalfStepRate() {
+        BallSimulation simulation = dropPile(30, 1);
+        BallStore balls = simulation.getAnimatingBalls();
+        assertFalse(balls.isEmpty());
+        assertEquals(0, balls.countAwake());
+    }
+
+    @Test
+    public void hardHitWakesSleepingPile() {
+        BallSimulation simulation = dropPile(60, 1);
+        BallStore balls = simulation.getAnimatingBalls();
+        int settled = balls.size();
+
+        /* Fire one more ball straight down into the top of the pile. */
+        int top = 0;
+        for (int i = 1; i < settled; i++) {
+            if (balls.y[i] < balls.y[top]) {
+                top = i;
+            }
+        }
+        float radius = balls.radius[top];
+        int ball = balls.add(balls.x[top], balls.y[top] - radius * 4, radius,
+                BallStore.COLOR_RED);
+        balls.dy[ball] = radius;
+        for (int i = 0; i < 10; i++) {
+            simulation.step();
+        }
+        assertTrue(balls.countAwake() > 1);
+    }
+
+    /**
+     * Drop {@code glyphs} glyphs' worth of stationary balls, stacked on top
+     * of each other, onto the middle of the floor, and step until they all
+     * sleep or 30 seconds pass.
+     */
+    private static BallSimulation dropPile(int stepRate, int glyphs) {
+        BallSimulation simulation = new BallSimulation(0, 1);
+        simulation.setSurfaceSize(WIDTH, HEIGHT);
+        simulation.setFixedStepRate(stepRate);
+        for (int i = 0; i < glyphs; i++) {
+            simulation.spawnGlyph(WIDTH / 2f, HEIGHT - 45 - i * 85);
+        }
+        BallStore balls = simulation.getAnimatingBalls();
+        for (int i = 0; i < balls.size(); i++) {
+            balls.dx[i] = 0;
+            balls.dy[i] = 0;
+        }
+        for (int n = 0; n < stepRate * 30 && balls.countAwake() > 0; n++) {
+            simulation.step();
+        }
+        return simulation;
+    }
+}
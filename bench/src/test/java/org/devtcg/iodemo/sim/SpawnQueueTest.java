@@ -0,0 +1,150 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SpawnQueueTest {
+    @Test
+    public void drainsInOrder() {
+        SpawnQueue queue = new SpawnQueue(8);
+        SpawnRecorder spawned = new SpawnRecorder(16);
+        assertEquals(0, queue.drainTo(spawned));
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(i, -i));
+        }
+        assertEquals(5, queue.drainTo(spawned));
+        assertEquals(5, spawned.mCount);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, spawned.mX[i], 0f);
+            assertEquals(-i, spawned.mY[i], 0f);
+        }
+        assertEquals(0, queue.drainTo(spawned));
+    }
+
+    @Test
+    public void dropsOffersWhenFull() {
+        /* Rounded up to 8. */
+        SpawnQueue queue = new SpawnQueue(5);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(i, 0));
+        }
+        assertFalse(queue.offer(8, 0));
+
+        SpawnRecorder spawned = new SpawnRecorder(8);
+        assertEquals(8, queue.drainTo(spawned));
+        assertEquals(7, spawned.mX[7], 0f);
+
+        /* Draining frees the slots again. */
+        assertTrue(queue.offer(9, 0));
+    }
+
+    @Test
+    public void wrapsAround() {
+        SpawnQueue queue = new SpawnQueue(4);
+        SpawnRecorder spawned = new SpawnRecorder(300);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(queue.offer(i * 3, 0));
+            assertTrue(queue.offer(i * 3 + 1, 0));
+            assertTrue(queue.offer(i * 3 + 2, 0));
+            assertEquals(3, queue.drainTo(spawned));
+        }
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, spawned.mX[i], 0f);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void handsOffBetweenThreads() throws InterruptedException {
+        final int total = 200000;
+        final SpawnQueue queue = new SpawnQueue(16);
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < total; i++) {
+                    while (!queue.offer(i, i + 0.5f)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        SpawnRecorder spawned = new SpawnRecorder(total);
+        while (spawned.mCount < total) {
+            if (queue.drainTo(spawned) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+
+        for (int i = 0; i < total; i++) {
+            assertEquals(i, spawned.mX[i], 0f);
+            assertEquals(i + 0.5f, spawned.mY[i], 0f);
+        }
+    }
+
+    /**
+     * Keeps the points it is asked to spawn glyphs at, and does nothing else.
+     */
+    private static class SpawnRecorder implements Simulation {
+        final float[] mX;
+        final float[] mY;
+        int mCount;
+
+        SpawnRecorder(int capacity) {
+            mX = new float[capacity];
+            mY = new float[capacity];
+        }
+
+        public void spawnGlyph(float x, float y) {
+            mX[mCount] = x;
+            mY[mCount] = y;
+            mCount++;
+        }
+
+        public void setSurfaceSize(int width, int height) {
+        }
+
+        public void setGravity(float x, float y) {
+        }
+
+        public void setFixedStepRate(int stepsPerSecond) {
+        }
+
+        public void setBroadphaseInterval(int steps) {
+        }
+
+        public void setSpawnLimit(int maxBalls) {
+        }
+
+        public void update(long nowMillis, long nowNanos) {
+        }
+
+        public boolean isAnimating() {
+            return false;
+        }
+
+        public long getMillisUntilClockChange(long nowMillis) {
+            return -1;
+        }
+
+        public BallStore getClockBalls() {
+            return null;
+        }
+
+        public BallStore getAnimatingBalls() {
+            return null;
+        }
+
+        public int getClockVersion() {
+            return 0;
+        }
+
+        public float getInterpolation() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.devtcg.iodemo.sim.TestScenes.FrameDriver;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A saved scene restores exactly, and a damaged file is rejected without
+ * touching the simulation it was to be restored into.
+ */
+public class StateFileTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "state.bin");
+    }
+
+    @Test
+    public void roundTripRestoresScene() throws IOException {
+        FrameDriver driver = new FrameDriver(10);
+        BallSimulation original = TestScenes.newSimulation(5);
+        driver.run(300, original);
+        StateFile.save(original, mFile);
+
+        /* A different seed, so everything has to come from the file. */
+        BallSimulation restored = new BallSimulation(TestScenes.COUNTDOWN_TO, 99);
+        assertTrue(StateFile.restore(mFile, restored));
+        TestScenes.assertSameScene(original, restored);
+
+        /*
+         * Both have to carry on identically too. Restoring resets the frame
+         * timing, so put the original through the same.
+         */
+        StateFile.restore(mFile, original);
+        driver.run(300, original, restored);
+        TestScenes.assertSameScene(original, restored);
+    }
+
+    @Test
+    public void missingFileIsNotRestored() throws IOException {
+        BallSimulation simulation = TestScenes.newScene(5, 300);
+        float[] x = snapshotX(simulation);
+        assertFalse(StateFile.restore(mFile, simulation));
+        assertArrayEquals(x, snapshotX(simulation), 0f);
+    }
+
+    @Test
+    public void badMagicIsRejected() throws IOException {
+        StateFile.save(TestScenes.newScene(5, 300), mFile);
+
+        /* A save cut short before its magic was written looks like this. */
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.writeInt(0);
+        raf.close();
+
+        assertRejected();
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        StateFile.save(TestScenes.newScene(5, 300), mFile);
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+
+        assertRejected();
+    }
+
+    @Test
+    public void otherCountdownIsRejected() throws IOException {
+        StateFile.save(TestScenes.newScene(5, 300), mFile);
+        BallSimulation other = new BallSimulation(TestScenes.COUNTDOWN_TO + 1000, 1);
+        try {
+            StateFile.restore(mFile, other);
+            fail("expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    private void assertRejected() {
+        BallSimulation simulation = TestScenes.newScene(5, 300);
+        float[] x = snapshotX(simulation);
+        int size = simulation.getAnimatingBalls().size();
+        try {
+            StateFile.restore(mFile, simulation);
+            fail("expected an IOException");
+        } catch (IOException expected) {
+        }
+        assertEquals(size, simulation.getAnimatingBalls().size());
+        assertArrayEquals(x, snapshotX(simulation), 0f);
+    }
+
+    private static float[] snapshotX(BallSimulation simulation) {
+        BallStore balls = simulation.getAnimatingBalls();
+        return Arrays.copyOf(balls.x, balls.size());
+    }
+}
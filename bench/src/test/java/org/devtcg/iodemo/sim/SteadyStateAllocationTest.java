@@ -0,0 +1,49 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.devtcg.iodemo.sim.TestScenes.FrameDriver;
+import org.junit.Test;
+
+/**
+ * Once warmed up, the simulation allocates nothing at all per frame, digit
+ * changes and spawns included. This measures every allocation the thread
+ * makes, not just the buffers {@link BufferAllocationCounter} is told about.
+ */
+public class SteadyStateAllocationTest {
+    @Test
+    public void frameLoopDoesNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean)threads;
+        long threadId = Thread.currentThread().getId();
+
+        for (int broadphase = BallSimulation.BROADPHASE_ALL_PAIRS;
+                broadphase <= BallSimulation.BROADPHASE_SWEEP_AND_PRUNE; broadphase++) {
+            BallSimulation simulation = new BallSimulation(TestScenes.COUNTDOWN_TO, 1, 2000);
+            simulation.setSurfaceSize(TestScenes.WIDTH, TestScenes.HEIGHT);
+            simulation.setBroadphase(broadphase);
+            FrameDriver driver = new FrameDriver(30);
+
+            /* Built up front, as a varargs call would allocate it while measuring. */
+            Simulation[] simulations = { simulation };
+
+            /* Let every buffer grow to its high water mark. */
+            driver.run(1200, simulations);
+
+            /* Calibrate out whatever reading the counter itself costs. */
+            long before = allocations.getThreadAllocatedBytes(threadId);
+            long overhead = allocations.getThreadAllocatedBytes(threadId) - before;
+
+            before = allocations.getThreadAllocatedBytes(threadId);
+            driver.run(600, simulations);
+            long allocated = allocations.getThreadAllocatedBytes(threadId) - before - overhead;
+
+            assertEquals("bytes allocated with broadphase " + broadphase, 0, allocated);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+/**
+ * Scenes and assertions shared by the simulation tests.
+ */
+final class TestScenes {
+    /* Far enough out that the countdown never runs out during a test. */
+    static final long COUNTDOWN_TO = 4102444800000L;
+    static final long START_MILLIS = COUNTDOWN_TO - 3L * 24 * 3600 * 1000;
+
+    static final int WIDTH = 480;
+    static final int HEIGHT = 800;
+
+    private static final long FRAME_NANOS = 16666667L;
+
+    private TestScenes() {
+    }
+
+    /**
+     * A simulation of the standard test surface, counting down to
+     * {@link #COUNTDOWN_TO}.
+     */
+    static BallSimulation newSimulation(long seed) {
+        BallSimulation simulation = new BallSimulation(COUNTDOWN_TO, seed);
+        simulation.setSurfaceSize(WIDTH, HEIGHT);
+        return simulation;
+    }
+
+    /**
+     * Feeds simulations steady 60 Hz frames starting at
+     * {@link #START_MILLIS}, spawning a glyph every so often. Each frame
+     * goes to every simulation given, so ones that start out the same stay
+     * the same.
+     */
+    static final class FrameDriver {
+        private final int mSpawnInterval;
+        private long mNanos;
+        private int mFrame;
+
+        /**
+         * @param spawnInterval Frames between spawned glyphs.
+         */
+        FrameDriver(int spawnInterval) {
+            mSpawnInterval = spawnInterval;
+        }
+
+        void run(int frames, Simulation... simulations) {
+            for (int i = 0; i < frames; i++) {
+                if (mFrame % mSpawnInterval == 0) {
+                    /* Walk across the surface so glyphs land on each other. */
+                    float x = 40 + mFrame % (WIDTH - 80);
+                    for (Simulation simulation : simulations) {
+                        simulation.spawnGlyph(x, 200);
+                    }
+                }
+                mFrame++;
+                mNanos += FRAME_NANOS;
+                for (Simulation simulation : simulations) {
+                    simulation.update(START_MILLIS + mNanos / 1000000, mNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * A simulation that has been running for {@code frames} frames of
+     * {@link FrameDriver}, spawning a glyph every 10 frames.
+     */
+    static BallSimulation newScene(long seed, int frames) {
+        BallSimulation simulation = newSimulation(seed);
+        new FrameDriver(10).run(frames, simulation);
+        return simulation;
+    }
+
+    /**
+     * Assert that every animating ball, and the clock face, are bit for bit
+     * the same in both.
+     */
+    static void assertSameScene(BallSimulation expected, BallSimulation actual) {
+        BallStore a = expected.getAnimatingBalls();
+        BallStore b = actual.getAnimatingBalls();
+        assertTrue("nothing was animating", a.size() > 0);
+        assertEquals(a.size(), b.size());
+        int n = a.size();
+        assertArrayEquals(Arrays.copyOf(a.x, n), Arrays.copyOf(b.x, n), 0f);
+        assertArrayEquals(Arrays.copyOf(a.y, n), Arrays.copyOf(b.y, n), 0f);
+        assertArrayEquals(Arrays.copyOf(a.dx, n), Arrays.copyOf(b.dx, n), 0f);
+        assertArrayEquals(Arrays.copyOf(a.dy, n), Arrays.copyOf(b.dy, n), 0f);
+        assertArrayEquals(Arrays.copyOf(a.color, n), Arrays.copyOf(b.color, n));
+        for (int i = 0; i < n; i++) {
+            assertEquals("asleep " + i, a.asleep[i], b.asleep[i]);
+        }
+
+        BallStore clockA = expected.getClockBalls();
+        BallStore clockB = actual.getClockBalls();
+        assertEquals(clockA.size(), clockB.size());
+        assertArrayEquals(Arrays.copyOf(clockA.color, clockA.size()),
+                Arrays.copyOf(clockB.color, clockB.size()));
+    }
+}
@@ -0,0 +1,88 @@
+package org.devtcg.iodemo.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkerPoolTest {
+    private static final int COUNT = 100;
+
+    private WorkerPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new WorkerPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void runsEveryIndexOnce() {
+        final AtomicInteger[] runs = new AtomicInteger[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            runs[i] = new AtomicInteger();
+        }
+        mPool.execute(new WorkerPool.Task() {
+            public void run(int index) {
+                runs[index].incrementAndGet();
+            }
+        }, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals("index " + i, 1, runs[i].get());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void errorIsRethrownOnTheCaller() {
+        final AssertionError error = new AssertionError("boom");
+        final AtomicInteger runs = new AtomicInteger();
+        WorkerPool.Task task = new WorkerPool.Task() {
+            public void run(int index) {
+                runs.incrementAndGet();
+                if (index == 42) {
+                    throw error;
+                }
+            }
+        };
+        try {
+            mPool.execute(task, COUNT);
+            fail("expected the task's error");
+        } catch (AssertionError e) {
+            assertSame(error, e);
+        }
+        assertEquals(COUNT, runs.get());
+
+        /* The pool must still work afterwards. */
+        runs.set(0);
+        mPool.execute(new WorkerPool.Task() {
+            public void run(int index) {
+                runs.incrementAndGet();
+            }
+        }, COUNT);
+        assertEquals(COUNT, runs.get());
+    }
+
+    @Test(timeout = 10000)
+    public void runtimeExceptionIsRethrownOnTheCaller() {
+        final IllegalStateException exception = new IllegalStateException();
+        try {
+            mPool.execute(new WorkerPool.Task() {
+                public void run(int index) {
+                    throw exception;
+                }
+            }, COUNT);
+            fail("expected the task's exception");
+        } catch (IllegalStateException e) {
+            assertSame(exception, e);
+        }
+    }
+}
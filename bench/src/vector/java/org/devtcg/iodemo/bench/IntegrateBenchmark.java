@@ -0,0 +1,145 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.BallSimulation;
+import org.devtcg.iodemo.sim.BallStore;
+import org.devtcg.iodemo.sim.IntegrateKernel;
+import org.devtcg.iodemo.sim.ScalarIntegrateKernel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The integrate-and-bounce loop alone, scalar against Vector API, over a
+ * scattered scene with some of the balls asleep. Before measuring, both
+ * kernels are run side by side for a while from the same scene and must
+ * agree.
+ *
+ * <pre>
+ *   java -jar target/benchmarks.jar IntegrateBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class IntegrateBenchmark {
+    /* Steps both kernels are run for while checking that they agree. */
+    private static final int CHECK_STEPS = 600;
+
+    /* Largest difference allowed between kernels, in pixels. */
+    private static final float TOLERANCE = 1e-3f;
+
+    @Param({ "scalar", "vector" })
+    public String kernel;
+
+    @Param({ "10000", "100000" })
+    public int balls;
+
+    private IntegrateKernel mKernel;
+    private IntegrateKernel.Step mStep;
+    private BallStore mScene;
+    private BallStore mBalls;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        BallSimulation simulation = Scenes.newSimulation(1, balls);
+        Scenes.scatterBalls(simulation, balls, 2);
+        mStep = captureStep(simulation);
+
+        mScene = new BallStore(balls);
+        Scenes.copyBalls(simulation.getAnimatingBalls(), mScene);
+        Random random = new Random(3);
+        for (int i = 0; i < balls; i++) {
+            mScene.asleep[i] = random.nextInt(8) == 0;
+        }
+        mBalls = new BallStore(balls);
+
+        if (kernel.equals("scalar")) {
+            mKernel = new ScalarIntegrateKernel();
+        } else if (kernel.equals("vector")) {
+            mKernel = new VectorIntegrateKernel();
+        } else {
+            throw new IllegalArgumentException("Unknown kernel: " + kernel);
+        }
+
+        checkAgreement();
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreScene() {
+        copyScene(mScene, mBalls);
+    }
+
+    @Benchmark
+    public BallStore integrate() {
+        mKernel.integrate(mBalls, 0, mBalls.size(), mStep);
+        return mBalls;
+    }
+
+    /**
+     * The inputs a real step of {@code simulation} passes to its kernel.
+     */
+    private static IntegrateKernel.Step captureStep(BallSimulation simulation) {
+        final IntegrateKernel.Step[] captured = new IntegrateKernel.Step[1];
+        simulation.setIntegrateKernel(new IntegrateKernel() {
+            public void integrate(BallStore balls, int from, int to, Step step) {
+                captured[0] = step;
+            }
+        });
+        /* Tilted a little, so the balls drift sideways as well as fall. */
+        simulation.setGravity(0.2f, 0.98f);
+        simulation.step();
+        if (captured[0] == null) {
+            throw new IllegalStateException("Simulation step did not integrate");
+        }
+        return captured[0];
+    }
+
+    private void checkAgreement() {
+        BallStore scalar = new BallStore(balls);
+        BallStore vector = new BallStore(balls);
+        copyScene(mScene, scalar);
+        copyScene(mScene, vector);
+        IntegrateKernel scalarKernel = new ScalarIntegrateKernel();
+        IntegrateKernel vectorKernel = new VectorIntegrateKernel();
+
+        for (int n = 0; n < CHECK_STEPS; n++) {
+            scalarKernel.integrate(scalar, 0, balls, mStep);
+            vectorKernel.integrate(vector, 0, balls, mStep);
+        }
+        for (int i = 0; i < balls; i++) {
+            if (Math.abs(scalar.x[i] - vector.x[i]) > TOLERANCE ||
+                    Math.abs(scalar.y[i] - vector.y[i]) > TOLERANCE ||
+                    Math.abs(scalar.dx[i] - vector.dx[i]) > TOLERANCE ||
+                    Math.abs(scalar.dy[i] - vector.dy[i]) > TOLERANCE ||
+                    scalar.asleep[i] != vector.asleep[i]) {
+                throw new IllegalStateException("Kernels disagree on ball " + i +
+                        " after " + CHECK_STEPS + " steps");
+            }
+        }
+    }
+
+    /**
+     * Like {@link Scenes#copyBalls}, but keeping which balls are asleep.
+     */
+    private static void copyScene(BallStore from, BallStore to) {
+        Scenes.copyBalls(from, to);
+        int N = from.size();
+        System.arraycopy(from.asleep, 0, to.asleep, 0, N);
+        System.arraycopy(from.restCount, 0, to.restCount, 0, N);
+    }
+}
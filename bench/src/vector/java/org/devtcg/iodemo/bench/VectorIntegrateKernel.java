@@ -0,0 +1,132 @@
+package org.devtcg.iodemo.bench;
+
+import org.devtcg.iodemo.sim.BallStore;
+import org.devtcg.iodemo.sim.IntegrateKernel;
+import org.devtcg.iodemo.sim.ScalarIntegrateKernel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Integration kernel built on the (incubating) Vector API, working a full
+ * vector of balls at a time.
+ * <p>
+ * Gravity and movement are a handful of adds and multiplies per ball, which
+ * vectorize trivially. The bounce is branchy (the minimum kick) and rare, so
+ * rather than vectorize it, bouncing balls are left out of the vector update
+ * and handed one at a time to the {@link ScalarIntegrateKernel}, as is the
+ * tail that doesn't fill a vector. The arithmetic is done in the same order
+ * as the scalar loop, with no fused multiply-adds, so the results are meant
+ * to match it exactly.
+ * <p>
+ * Asleep and bouncing balls are kept as they were by blending, not masked
+ * stores: on JDK 17 masked stores, masks loaded from a boolean[] and
+ * {@code VectorMask.toLong} aren't intrinsified and run several times slower
+ * than the scalar loop. Instead the block's asleep flags are gathered into an
+ * int and tested against a constant vector of lane bits, and the bouncing
+ * lanes are found by OR-ing those bits together.
+ * <p>
+ * Needs {@code --add-modules jdk.incubator.vector} at compile and run time;
+ * the bench build only compiles this on JDK 16 and later.
+ */
+public final class VectorIntegrateKernel implements IntegrateKernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INT_SPECIES =
+            VectorSpecies.of(int.class, SPECIES.vectorShape());
+
+    /* Lane flags are gathered into an int, one bit per lane. */
+    private static final boolean VECTORIZED = SPECIES.length() <= Integer.SIZE;
+
+    /* 1 << lane in each lane. */
+    private static final IntVector LANE_BITS = IntVector.broadcast(INT_SPECIES, 1)
+            .lanewise(VectorOperators.LSHL,
+                    (IntVector)INT_SPECIES.iotaShuffle(0, 1, false).toVector());
+
+    private final ScalarIntegrateKernel mScalar = new ScalarIntegrateKernel();
+
+    /**
+     * Number of balls handled per vector on this machine, or 1 if this
+     * machine's vectors are too wide and everything runs scalar.
+     */
+    public static int getLaneCount() {
+        return VECTORIZED ? SPECIES.length() : 1;
+    }
+
+    public void integrate(BallStore balls, int from, int to, Step step) {
+        if (!VECTORIZED) {
+            mScalar.integrate(balls, from, to, step);
+            return;
+        }
+
+        boolean move = step.move;
+        float horizontalForce = step.horizontalForce;
+        float verticalForce = step.verticalForce;
+        float velocityScale = step.velocityScale;
+        float height = step.height;
+
+        float[] xs = balls.x;
+        float[] ys = balls.y;
+        float[] dxs = balls.dx;
+        float[] dys = balls.dy;
+        boolean[] asleep = balls.asleep;
+
+        int lanes = SPECIES.length();
+        int allAsleep = lanes == Integer.SIZE ? -1 : (1 << lanes) - 1;
+        int bound = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += lanes) {
+            int sleeping = 0;
+            for (int lane = 0; lane < lanes; lane++) {
+                sleeping |= (asleep[i + lane] ? 1 : 0) << lane;
+            }
+            if (sleeping == allAsleep) {
+                continue;
+            }
+            VectorMask<Float> awake = IntVector.broadcast(INT_SPECIES, sleeping)
+                    .and(LANE_BITS)
+                    .compare(VectorOperators.EQ, 0)
+                    .cast(SPECIES);
+
+            FloatVector dx0 = FloatVector.fromArray(SPECIES, dxs, i);
+            FloatVector dy0 = FloatVector.fromArray(SPECIES, dys, i);
+            FloatVector y0 = FloatVector.fromArray(SPECIES, ys, i);
+            FloatVector dx = dx0.add(horizontalForce);
+            FloatVector dy = dy0.add(verticalForce);
+            FloatVector posy = dy.mul(velocityScale).add(y0);
+
+            VectorMask<Float> bounce = posy.compare(VectorOperators.GT, height)
+                    .and(dy.compare(VectorOperators.GT, 0f))
+                    .or(posy.compare(VectorOperators.LT, 0f)
+                            .and(dy.compare(VectorOperators.LT, 0f)))
+                    .and(awake);
+            VectorMask<Float> update = awake.andNot(bounce);
+
+            dx0.blend(dx, update).intoArray(dxs, i);
+            dy0.blend(dy, update).intoArray(dys, i);
+            if (move) {
+                FloatVector x0 = FloatVector.fromArray(SPECIES, xs, i);
+                x0.blend(dx.mul(velocityScale).add(x0), update).intoArray(xs, i);
+                y0.blend(posy, update).intoArray(ys, i);
+            }
+
+            /* Bouncing balls were left alone above. */
+            if (bounce.anyTrue()) {
+                int bouncing = IntVector.zero(INT_SPECIES)
+                        .blend(LANE_BITS, bounce.cast(INT_SPECIES))
+                        .reduceLanes(VectorOperators.OR);
+                while (bouncing != 0) {
+                    int ball = i + Integer.numberOfTrailingZeros(bouncing);
+                    bouncing &= bouncing - 1;
+                    mScalar.integrate(balls, ball, ball + 1, step);
+                }
+            }
+        }
+
+        if (i < to) {
+            mScalar.integrate(balls, i, to, step);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.devtcg.iodemo;
+
+import org.devtcg.iodemo.sim.BallStore;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Shader;
+
+/**
+ * Draws balls as textured quads cut from a pre-rendered sprite atlas (one
+ * circle per color, normally anti-aliased) rather than rasterizing a circle
+ * path per ball. Quads are submitted in large batches through
+ * {@link Canvas#drawVertices}, so thousands of balls cost a handful of draw
+ * calls.
+ */
+class BallSprites {
+    /*
+     * Keep every vertex index below 32768 so the (signed) short indices are
+     * valid however the native side interprets them.
+     */
+    private static final int MAX_SPRITES_PER_BATCH = 8192;
+
+    private static final int VERTICES_PER_SPRITE = 4;
+    private static final int INDICES_PER_SPRITE = 6;
+
+    /* Transparent border around each sprite so anti-aliased edges aren't clipped. */
+    private static final int SPRITE_PADDING = 1;
+
+    private final Paint[] mPaints;
+
+    private Bitmap mAtlas;
+    private final Paint mAtlasPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private boolean mAntiAlias = true;
+
+    /* Radius the sprites were rendered at, and the size of each atlas cell. */
+    private float mSpriteRadius;
+    private float mCellSize;
+
+    private final float[] mVerts = new float[MAX_SPRITES_PER_BATCH * VERTICES_PER_SPRITE * 2];
+    private final float[] mTexs = new float[MAX_SPRITES_PER_BATCH * VERTICES_PER_SPRITE * 2];
+    private final short[] mIndices = new short[MAX_SPRITES_PER_BATCH * INDICES_PER_SPRITE];
+
+    /**
+     * @param paints Paints indexed by ball color, used to render the atlas.
+     */
+    public BallSprites(Paint[] paints) {
+        mPaints = paints;
+
+        /* Two triangles per quad; the pattern never changes. */
+        for (int sprite = 0; sprite < MAX_SPRITES_PER_BATCH; sprite++) {
+            int vertex = sprite * VERTICES_PER_SPRITE;
+            int index = sprite * INDICES_PER_SPRITE;
+            mIndices[index] = (short)vertex;
+            mIndices[index + 1] = (short)(vertex + 1);
+            mIndices[index + 2] = (short)(vertex + 2);
+            mIndices[index + 3] = (short)(vertex + 2);
+            mIndices[index + 4] = (short)(vertex + 3);
+            mIndices[index + 5] = (short)vertex;
+        }
+    }
+
+    public boolean isReady() {
+        return mAtlas != null;
+    }
+
+    /**
+     * Re-render the atlas for balls of the given radius. Called whenever the
+     * ball radius is recomputed for a new surface size; a no-op if the
+     * radius hasn't actually changed (e.g. only the height did).
+     */
+    public void rebuild(float radius) {
+        if (mAtlas != null && radius == mSpriteRadius) {
+            return;
+        }
+        release();
+        if (radius <= 0) {
+            return;
+        }
+
+        int cellSize = (int)Math.ceil(radius * 2) + SPRITE_PADDING * 2;
+        Bitmap atlas = Bitmap.createBitmap(cellSize * mPaints.length, cellSize,
+                Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(atlas);
+        for (int color = 0; color < mPaints.length; color++) {
+            canvas.drawCircle(color * cellSize + cellSize / 2f, cellSize / 2f, radius,
+                    mPaints[color]);
+        }
+
+        mAtlas = atlas;
+        mAtlasPaint.setShader(new BitmapShader(atlas, Shader.TileMode.CLAMP,
+                Shader.TileMode.CLAMP));
+        mSpriteRadius = radius;
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Switch between anti-aliased, filtered sprites and cheaper aliased ones
+     * sampled without filtering. The atlas is re-rendered with the paints as
+     * they are now, so their anti-alias flag should be set to match first.
+     */
+    public void setAntiAlias(boolean antiAlias) {
+        if (antiAlias == mAntiAlias) {
+            return;
+        }
+        mAntiAlias = antiAlias;
+        mAtlasPaint.setFilterBitmap(antiAlias);
+        if (mAtlas != null) {
+            float radius = mSpriteRadius;
+            release();
+            rebuild(radius);
+        }
+    }
+
+    public void release() {
+        if (mAtlas != null) {
+            mAtlasPaint.setShader(null);
+            mAtlas.recycle();
+            mAtlas = null;
+        }
+    }
+
+    /**
+     * @param interpolation How far (0 to 1) between each ball's previous and
+     *            current position to draw it.
+     */
+    public void draw(Canvas canvas, BallStore balls, float interpolation) {
+        float[] xs = balls.x;
+        float[] ys = balls.y;
+        float[] prevXs = balls.prevX;
+        float[] prevYs = balls.prevY;
+        float[] radii = balls.radius;
+        byte[] colors = balls.color;
+        float[] verts = mVerts;
+        float[] texs = mTexs;
+
+        float cellSize = mCellSize;
+        float halfCell = cellSize / 2f;
+        float scale = 1f / mSpriteRadius;
+
+        int N = balls.size();
+        int batched = 0;
+        for (int i = 0; i < N; i++) {
+            float x = xs[i];
+            float y = ys[i];
+            if (interpolation < 1f) {
+                x = prevXs[i] + (x - prevXs[i]) * interpolation;
+                y = prevYs[i] + (y - prevYs[i]) * interpolation;
+            }
+
+            /* Sprites are scaled in the (unusual) case that radii differ. */
+            float half = halfCell * radii[i] * scale;
+            float left = x - half;
+            float top = y - half;
+            float right = x + half;
+            float bottom = y + half;
+
+            float texLeft = colors[i] * cellSize;
+            float texRight = texLeft + cellSize;
+
+            int v = batched * VERTICES_PER_SPRITE * 2;
+            verts[v] = left;       verts[v + 1] = top;
+            verts[v + 2] = right;  verts[v + 3] = top;
+            verts[v + 4] = right;  verts[v + 5] = bottom;
+            verts[v + 6] = left;   verts[v + 7] = bottom;
+            texs[v] = texLeft;     texs[v + 1] = 0;
+            texs[v + 2] = texRight; texs[v + 3] = 0;
+            texs[v + 4] = texRight; texs[v + 5] = cellSize;
+            texs[v + 6] = texLeft; texs[v + 7] = cellSize;
+
+            if (++batched == MAX_SPRITES_PER_BATCH) {
+                flush(canvas, batched);
+                batched = 0;
+            }
+        }
+        if (batched > 0) {
+            flush(canvas, batched);
+        }
+    }
+
+    private void flush(Canvas canvas, int sprites) {
+        canvas.drawVertices(Canvas.VertexMode.TRIANGLES,
+                sprites * VERTICES_PER_SPRITE * 2, mVerts, 0, mTexs, 0, null, 0,
+                mIndices, 0, sprites * INDICES_PER_SPRITE, mAtlasPaint);
+    }
+}
@@ -6,6 +6,12 @@ import java.util.TimeZone;
 public class Constants {
     public static final boolean DEBUG = true;
 
+    /*
+     * Record each session's input to the app's files directory so it can be
+     * replayed headless; see org.devtcg.iodemo.sim.SessionRecorder.
+     */
+    public static final boolean RECORD_SESSIONS = false;
+
     public static final long COUNTDOWN_TO_WHEN;
 
     static {
@@ -1,617 +1,720 @@
 package org.devtcg.iodemo;
 
-import org.devtcg.iodemo.NumberFont.Glyph;
+import org.devtcg.iodemo.sim.BallSimulation;
+import org.devtcg.iodemo.sim.BallStore;
+import org.devtcg.iodemo.sim.BufferAllocationCounter;
+import org.devtcg.iodemo.sim.FrameProfiler;
+import org.devtcg.iodemo.sim.FrameSnapshot;
+import org.devtcg.iodemo.sim.Histogram;
+import org.devtcg.iodemo.sim.QualityGovernor;
+import org.devtcg.iodemo.sim.SensorSnapshot;
+import org.devtcg.iodemo.sim.SessionRecorder;
+import org.devtcg.iodemo.sim.SnapshotPipeline;
+import org.devtcg.iodemo.sim.SoakReport;
+import org.devtcg.iodemo.sim.StressDriver;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 
-import java.util.ArrayList;
-import java.util.Random;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 
+/**
+ * Renders a {@link BallSimulation} to the surface, feeding it touch and
+ * sensor input along the way. The simulation runs on its own
+ * {@link SimulationThread}, at most one frame ahead of what this thread is
+ * drawing; see {@link SnapshotPipeline}.
+ */
 public class DrawThread extends Thread {
     private static final String TAG = DrawThread.class.getSimpleName();
 
+    /* How often the on-screen stats overlay is refreshed. */
+    private static final long STATS_OVERLAY_INTERVAL_NANOS = 1000000000L;
+    private static final float STATS_OVERLAY_TEXT_SIZE = 14f;
+
     /*
-     * Ratios are relative to the ball radius, which will be computed
-     * dynamically to ensure that it fits ideally on all possible device
-     * resolutions (for instance, on a tablet). This looks like just nonsense
-     * though. I admit, it was an afterthought but no time to fix things now :)
+     * Frame time budget that the quality governor holds to, and that stress
+     * mode measures sustained throughput at.
      */
-    private static final float PHYS_X_ACCEL_RATIO = (12f / 5f);
-    private static final float PHYS_Y_ACCEL_RATIO = (12f / 5f);
-    private static final float PHYS_Y_FRICTION_SORT_OF = 0.90f;
-    private static final float PHYS_MIN_Y_ACCEL_AT_BOTTOM_RATIO = (5f / 5f);
-    private static final float BALL_SPACING_RATIO = 0.6f;
-    private static final float DIGIT_SPACING_RATIO = 2.4f;
-    private static final float BALL_MIN_DELTA_X_RATIO = -(6f / 5f);
-    private static final float BALL_MAX_DELTA_X_RATIO = (6f / 5f);
-    private static final float BALL_MIN_DELTA_Y_RATIO = -(4f / 5f);
-    private static final float BALL_MAX_DELTA_Y_RATIO = (1f / 5f);
-
-    private static final Random sRandom = new Random();
+    private static final long FRAME_BUDGET_NANOS = 16000000L;
+
+    /* Private file the scene is saved to while the surface is gone. */
+    private static final String STATE_FILE = "simulation.state";
 
     private SurfaceHolder mSurfaceHolder;
 
-    /**
-     * Array of all animating balls on screen (does not include the balls used
-     * to draw the clock).
-     */
-    private final ArrayList<Ball> mAnimatingBalls = new ArrayList<Ball>();
+    private final SimulationThread mSimulationThread;
+    private final SnapshotPipeline mPipeline;
 
     /**
-     * Array of static balls on screen used for the clock. Balls will be cloned
-     * from this set when they are to begin animating. These balls are actually
-     * allocated once on initialization and merely change paints to adjust
-     * color. This completes the object oriented analogy that the demo is trying
-     * to convey.
-     * <p>
-     * This array includes the balls to draw the colon separating each set of
-     * digits.
-     */
-    private final ArrayList<Ball> mClockBalls = new ArrayList<Ball>();
-
-    /*
-     * Organization of each part of the clock in terms of the ball objects that
-     * are used to draw it. The purpose of this organization is to be able to
-     * conveniently determine which balls are being "turned off" when the digit
-     * changes so that they can be copied into the animating set and thus begin
-     * animating.
+     * Paints indexed by the color stored for each ball (see
+     * {@link BallStore#COLOR_GRAY} and friends).
      */
-    private final DigitSet mDayDigits;
-    private final DigitSet mHourDigits;
-    private final DigitSet mMinuteDigits;
-    private final DigitSet mSecondDigits;
-
-    private final Paint mGrayPaint;
+    private final Paint[] mPaints = new Paint[BallStore.NUM_COLORS];
 
     private final int mBackgroundColor;
 
-    /* The following are computed at runtime based on the device resolution. */
-    private float mDigitSpacing;
-    private float mBallRadius;
-    private float mBallSpacing;
-    private float mBallMinDeltaX;
-    private float mBallMaxDeltaX;
-    private float mBallMinDeltaY;
-    private float mBallMaxDeltaY;
-    private float mPhysXAccel;
-    private float mPhysYAccel;
-    private float mPhysMinYAccelAtBottom;
+    /**
+     * Pre-rendered ball sprites, used instead of drawing each ball as a
+     * circle while {@link #mUseSprites} is set.
+     */
+    private final BallSprites mSprites;
+    private boolean mUseSprites = true;
 
     /**
      * True if we our surface is valid and we can draw; false otherwise.
      */
-    private boolean mDrawing;
+    private volatile boolean mDrawing;
 
-    private int mCanvasWidth;
-    private int mCanvasHeight;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
 
     /**
-     * Holds the yaw, pitch, and roll of the device collected from the MainView
-     * sensors.
+     * When true only the area that the animating balls cover (this frame or
+     * last) is redrawn, and the background and clock come from a cached
+     * bitmap; see {@link #setIncrementalRendering}.
      */
-    private float[] mGData;
-    private float[] mOrientation;
+    private boolean mIncremental = true;
 
     /**
-     * Time that the last draw frame occurred (in milliseconds).
+     * Background and clock face rasterized once per clock change, valid
+     * while {@link #mClockLayerVersion} matches the simulation's clock
+     * version.
      */
-    private long mLastDraw;
+    private Bitmap mClockLayer;
+    private Canvas mClockLayerCanvas;
+    private int mClockLayerVersion;
+
+    /* Area covered by the animating balls as drawn last frame, and the
+     * area to redraw this frame. */
+    private final Rect mLastBallBounds = new Rect();
+    private final Rect mBallBounds = new Rect();
+    private final Rect mDirty = new Rect();
 
     /**
-     * During a draw event represents the amount of time (in seconds) that has
-     * elapsed since the previous draw event.
+     * Per-phase frame timings, always recorded. See {@link #dumpFrameStats}
+     * and {@link #setStatsOverlay}.
      */
-    private double mElapsed;
+    private final FrameProfiler mProfiler = new FrameProfiler();
 
-    /**
-     * Records the previous times so that if they change we can animate the
-     * bouncing balls.
+    private boolean mStatsOverlay;
+    private final Paint mStatsPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private String[] mStatsLines = new String[0];
+    private final Rect mStatsBounds = new Rect();
+    private long mLastStatsUpdate;
+
+    /*
+     * Sheds quality when frames run over budget; see setQualityGovernor.
+     * Guarded by mSurfaceHolder.
      */
-    private final CountdownClock mLastCountdown = new CountdownClock();
+    private final QualityGovernor mGovernor = new QualityGovernor(FRAME_BUDGET_NANOS);
+    private boolean mGovernorEnabled = true;
 
-    /**
-     * Convenient container for the current countdown (to compare with the last
-     * one).
+    /*
+     * Report of the current (or last) stress run, and the allocation and GC
+     * totals from when it started; see setStressMode.
      */
-    private final CountdownClock mCurrentCountdown = new CountdownClock();
+    private volatile SoakReport mSoakReport;
+    private volatile boolean mStressing;
+    private long mSoakStartMillis;
+    private long mSoakEndMillis;
+    private int mSoakStartGcCount;
+    private int mSoakStartAllocSize;
+    private int mSoakEndGcCount;
+    private int mSoakEndAllocSize;
 
     public DrawThread(SurfaceHolder surfaceHolder, Context context) {
         mSurfaceHolder = surfaceHolder;
 
         Resources res = context.getResources();
 
-        Paint redPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        redPaint.setColor(res.getColor(R.color.red));
-        Paint greenPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        greenPaint.setColor(res.getColor(R.color.green));
-        Paint bluePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        bluePaint.setColor(res.getColor(R.color.blue));
-        Paint purplePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        purplePaint.setColor(res.getColor(R.color.purple));
+        mPaints[BallStore.COLOR_GRAY] = createPaint(res.getColor(R.color.gray));
+        mPaints[BallStore.COLOR_PURPLE] = createPaint(res.getColor(R.color.purple));
+        mPaints[BallStore.COLOR_BLUE] = createPaint(res.getColor(R.color.blue));
+        mPaints[BallStore.COLOR_RED] = createPaint(res.getColor(R.color.red));
+        mPaints[BallStore.COLOR_GREEN] = createPaint(res.getColor(R.color.green));
 
-        mDayDigits = new DigitSet(purplePaint);
-        mHourDigits = new DigitSet(bluePaint);
-        mMinuteDigits = new DigitSet(redPaint);
-        mSecondDigits = new DigitSet(greenPaint);
+        mBackgroundColor = res.getColor(R.color.background);
 
-        mGrayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        mGrayPaint.setColor(res.getColor(R.color.gray));
+        mSprites = new BallSprites(mPaints);
 
-        mBackgroundColor = res.getColor(R.color.background);
+        mStatsPaint.setColor(0xffffffff);
+        mStatsPaint.setTextSize(STATS_OVERLAY_TEXT_SIZE);
+
+        long seed = System.nanoTime();
+        BallSimulation simulation = new BallSimulation(Constants.COUNTDOWN_TO_WHEN, seed);
+        simulation.setProfiler(mProfiler);
+        SessionRecorder recorder = Constants.RECORD_SESSIONS ?
+                openRecorder(context, simulation, seed) : null;
+        File stateFile = (recorder == null) ? context.getFileStreamPath(STATE_FILE) : null;
+        mPipeline = new SnapshotPipeline(simulation);
+        mSimulationThread = new SimulationThread(simulation, recorder, stateFile, mPipeline,
+                mProfiler);
+    }
+
+    /**
+     * Start recording the simulation's input to a new file in the app's
+     * private storage, for replay with the bench module's ReplaySession.
+     *
+     * @return The recorder, or null if the file couldn't be created.
+     */
+    private static SessionRecorder openRecorder(Context context, BallSimulation simulation,
+            long seed) {
+        String name = "session-" + System.currentTimeMillis() + ".rec";
+        try {
+            OutputStream out = context.openFileOutput(name, Context.MODE_PRIVATE);
+            if (Constants.DEBUG) {
+                Log.d(TAG, "Recording session to " + context.getFileStreamPath(name));
+            }
+            return new SessionRecorder(simulation, out, Constants.COUNTDOWN_TO_WHEN, seed);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to record session", e);
+            return null;
+        }
+    }
+
+    private static Paint createPaint(int color) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(color);
+        return paint;
     }
 
     public void setSurfaceSize(int width, int height) {
-        synchronized (mSurfaceHolder) {
-            mCanvasWidth = width;
-            mCanvasHeight = height;
-            computeBallRadiusAndSizings();
-            positionClock();
+        SimulationThread simulationThread = mSimulationThread;
+        synchronized (simulationThread.getLock()) {
+            simulationThread.setSurfaceSize(width, height);
+            synchronized (mSurfaceHolder) {
+                if (width != mSurfaceWidth || height != mSurfaceHeight) {
+                    releaseClockLayer();
+                }
+                mSurfaceWidth = width;
+                mSurfaceHeight = height;
+                mSprites.rebuild(simulationThread.getSimulation().getBallRadius());
+            }
         }
+        simulationThread.wake();
     }
 
-    public void setSensorData(float[] gData, float[] orientation) {
-        synchronized (mSurfaceHolder) {
-            mGData = gData;
-            mOrientation = orientation;
+    public void setSensorData(SensorSnapshot sensors) {
+        mSimulationThread.setSensorData(sensors);
+    }
+
+    /**
+     * Called from the sensor thread after each new reading is published.
+     * Wakes an idle simulation if gravity has changed appreciably.
+     */
+    public void onSensorDataChanged() {
+        mSimulationThread.onSensorDataChanged();
+    }
+
+    /**
+     * Set the frame rate to pace at while balls are animating, or 0 to draw
+     * as fast as the surface allows.
+     */
+    public void setTargetFps(int targetFps) {
+        mSimulationThread.setTargetFps(targetFps);
+    }
+
+    /**
+     * @see BallSimulation#setBroadphase
+     */
+    public void setBroadphase(int broadphase) {
+        synchronized (mSimulationThread.getLock()) {
+            mSimulationThread.getSimulation().setBroadphase(broadphase);
         }
     }
 
-    public void setDrawing(boolean isDrawing) {
-        synchronized (mSurfaceHolder) {
-            mDrawing = isDrawing;
+    /**
+     * @see BallSimulation#setContinuousCollisions
+     */
+    public void setContinuousCollisions(boolean continuousCollisions) {
+        synchronized (mSimulationThread.getLock()) {
+            mSimulationThread.getSimulation().setContinuousCollisions(continuousCollisions);
         }
     }
 
-    private float randomFloatWithinRange(float min, float max) {
-        return (sRandom.nextFloat() * (max - min)) + min;
+    /**
+     * @see BallSimulation#setFixedStepRate
+     */
+    public void setFixedStepRate(int stepsPerSecond) {
+        mSimulationThread.setFixedStepRate(stepsPerSecond);
     }
 
-    public void doTouchEvent(MotionEvent event) {
-        if (event.getAction() == MotionEvent.ACTION_UP) {
-            synchronized (mSurfaceHolder) {
-                Glyph glyph = NumberFont.sFont[sRandom.nextInt(NumberFont.sFont.length)];
-
-                float ballDiameter = mBallRadius * 2;
-
-                float startX = event.getX() - ((ballDiameter + mBallSpacing) * 2f);
-                float x = startX;
-                float y = event.getY() - ((ballDiameter + mBallSpacing) * 3.5f);
-
-                for (int posY = 0; posY < glyph.getHeight(); posY++) {
-                    for (int posX = 0; posX < glyph.getWidth(); posX++) {
-                        if (glyph.isLit(posX, posY)) {
-                            Ball ball = new Ball(x, y, mBallRadius);
-                            ball.dx = randomFloatWithinRange(mBallMinDeltaX, mBallMaxDeltaX);
-                            ball.dy = randomFloatWithinRange(mBallMinDeltaY, mBallMaxDeltaY);
-
-                            switch (sRandom.nextInt(4)) {
-                                case 0: ball.paint = mMinuteDigits.litPaint; break;
-                                case 1: ball.paint = mSecondDigits.litPaint; break;
-                                case 2: ball.paint = mHourDigits.litPaint; break;
-                                case 3: ball.paint = mDayDigits.litPaint; break;
-                            }
-
-                            mAnimatingBalls.add(ball);
-                        }
-                        x += ballDiameter + mBallSpacing;
-                    }
-                    y += ballDiameter + mBallSpacing;
-                    x = startX;
-                }
+    /**
+     * Toggle shedding quality to hold frames within
+     * {@link #FRAME_BUDGET_NANOS} under load (on by default). In order, the
+     * governor halves the physics step rate, runs the broadphase only every
+     * other step, stops spawned glyphs from adding more balls, and turns off
+     * anti-aliasing; each is undone again once there is headroom. Turning it
+     * off restores full quality.
+     */
+    public void setQualityGovernor(boolean enabled) {
+        synchronized (mSurfaceHolder) {
+            mGovernorEnabled = enabled;
+            if (!enabled) {
+                mGovernor.reset();
+                applyQualityLevel(QualityGovernor.LEVEL_FULL);
             }
         }
     }
 
     /**
-     * Compute the pixel dimensions of some of our objects to ensure an ideal
-     * fit even on very large displays like tablets.
+     * Current quality level; see {@link QualityGovernor}.
      */
-    private void computeBallRadiusAndSizings() {
-        /*
-         * This math is likely impossible to read but it's the result of a
-         * formula I worked out trying to arrive at the same values I was using
-         * for testing on my Nexus One when adding the dynamic ball radius
-         * sizing. These are essentially those "golden ratios" that were tweaked
-         * by hand initially. The target value for mBallRadius on my N1 is 7.5px
-         * (5dp), which the below formula hits.
-         */
-        mBallRadius = (float)((mCanvasWidth * 0.96f) /
-                (16 * NumberFont.CONSTANT_WIDTH + 4.8 * (NumberFont.CONSTANT_WIDTH - 1) + 24));
-        mBallSpacing = mBallRadius * BALL_SPACING_RATIO;
-        mDigitSpacing = mBallRadius * DIGIT_SPACING_RATIO;
-        mBallMinDeltaX = mBallRadius * BALL_MIN_DELTA_X_RATIO;
-        mBallMaxDeltaX = mBallRadius * BALL_MAX_DELTA_X_RATIO;
-        mBallMinDeltaY = mBallRadius * BALL_MIN_DELTA_Y_RATIO;
-        mBallMaxDeltaY = mBallRadius * BALL_MAX_DELTA_Y_RATIO;
-        mPhysXAccel = mBallRadius * PHYS_X_ACCEL_RATIO;
-        mPhysYAccel = mBallRadius * PHYS_Y_ACCEL_RATIO;
-        mPhysMinYAccelAtBottom = mBallRadius * PHYS_MIN_Y_ACCEL_AT_BOTTOM_RATIO;
-    }
-
-    private void positionClock() {
-        /*
-         * Kinda lame to have to clear the balls and reallocate when really all
-         * we're doing is adjusting the x/y coordinates of them. Oh well, this
-         * simplifies the logic a bit.
-         */
-        mClockBalls.clear();
-
-        /* Initialize the positions of the static clock balls. */
-        float digitWidth = (mBallRadius * 2 * NumberFont.CONSTANT_WIDTH) +
-        (mBallSpacing * (NumberFont.CONSTANT_WIDTH - 1));
-        float digitHeight = (mBallRadius * 2 * NumberFont.CONSTANT_HEIGHT) +
-        (mBallSpacing * (NumberFont.CONSTANT_HEIGHT - 1));
-
-        float clockWidth = (digitWidth * 8) + (mDigitSpacing * 10);
-        float clockHeight = digitHeight;
-
-        float x = (mCanvasWidth - clockWidth) / 2f;
-        float y = (mCanvasHeight - clockHeight) / 2f;
-
-        createClockDigit(mClockBalls, mDayDigits.bitmaps[0], x, y); x += digitWidth + mDigitSpacing;
-        createClockDigit(mClockBalls, mDayDigits.bitmaps[1], x, y); x += digitWidth + mDigitSpacing;
-        createClockColon(mClockBalls, x, y); x += mDigitSpacing;
-        createClockDigit(mClockBalls, mHourDigits.bitmaps[0], x, y); x += digitWidth + mDigitSpacing;
-        createClockDigit(mClockBalls, mHourDigits.bitmaps[1], x, y); x += digitWidth + mDigitSpacing;
-        createClockColon(mClockBalls, x, y); x += mDigitSpacing;
-        createClockDigit(mClockBalls, mMinuteDigits.bitmaps[0], x, y); x += digitWidth + mDigitSpacing;
-        createClockDigit(mClockBalls, mMinuteDigits.bitmaps[1], x, y); x += digitWidth + mDigitSpacing;
-        createClockColon(mClockBalls, x, y); x += mDigitSpacing;
-        createClockDigit(mClockBalls, mSecondDigits.bitmaps[0], x, y); x += digitWidth + mDigitSpacing;
-        createClockDigit(mClockBalls, mSecondDigits.bitmaps[1], x, y); x += digitWidth + mDigitSpacing;
-
-        /* Reset this so that we trigger a full visual update. */
-        mLastCountdown.reset();
+    public int getQualityLevel() {
+        return mGovernor.getLevel();
     }
 
-    @Override
-    public void run() {
-        while (mDrawing) {
-            Canvas canvas = mSurfaceHolder.lockCanvas();
-            try {
-                synchronized (mSurfaceHolder) {
-                    doDraw(canvas);
-                }
-            } finally {
-                mSurfaceHolder.unlockCanvasAndPost(canvas);
+    /**
+     * Toggle incremental rendering. Incremental frames blit the background
+     * and clock from a cached bitmap (re-rasterized only when a clock ball
+     * changes) and lock only the rectangle covering the animating balls'
+     * old and new positions, which saves a lot of fill rate on large
+     * screens. Otherwise every frame clears and redraws everything.
+     */
+    public void setIncrementalRendering(boolean incremental) {
+        synchronized (mSurfaceHolder) {
+            mIncremental = incremental;
+            if (!incremental) {
+                releaseClockLayer();
             }
         }
     }
 
-    private void doDraw(Canvas canvas) {
-        drawBackground(canvas);
+    /**
+     * Toggle drawing balls from a pre-rendered sprite atlas in large batches
+     * (see {@link BallSprites}) versus one anti-aliased circle per ball.
+     */
+    public void setSpriteRendering(boolean useSprites) {
+        synchronized (mSurfaceHolder) {
+            mUseSprites = useSprites;
+        }
+    }
 
-        long startTime = System.currentTimeMillis();
-        handleClock(canvas, startTime);
+    /**
+     * Toggle a text overlay of recent frame timings (p50/p99 per phase),
+     * refreshed once a second.
+     */
+    public void setStatsOverlay(boolean statsOverlay) {
+        synchronized (mSurfaceHolder) {
+            mStatsOverlay = statsOverlay;
+            mLastStatsUpdate = 0;
+            mStatsBounds.setEmpty();
+        }
+        mSimulationThread.wake();
+    }
 
-        if (!mAnimatingBalls.isEmpty()) {
-            mElapsed = (startTime - mLastDraw) / 1000.0;
-            if (mElapsed > 0) {
-                updatePhysics();
+    /**
+     * Start (or, with both rates 0, stop) spawning glyphs on a timer as if
+     * the screen were being tapped nonstop, and measuring how many balls
+     * stay on screen within {@link #FRAME_BUDGET_NANOS}. A frame's
+     * time is the work both threads put into it, not counting waits for the
+     * surface. See {@link #dumpSoakReport}.
+     *
+     * @param glyphsPerSecond Spawn rate at the start.
+     * @param rampPerSecond How much the spawn rate climbs each second.
+     */
+    public void setStressMode(float glyphsPerSecond, float rampPerSecond) {
+        boolean stress = glyphsPerSecond > 0 || rampPerSecond > 0;
+        synchronized (mSurfaceHolder) {
+            if (stress) {
+                mSoakReport = new SoakReport(FRAME_BUDGET_NANOS);
+                mSoakStartMillis = System.currentTimeMillis();
+                mSoakStartGcCount = Debug.getGlobalGcInvocationCount();
+                Debug.startAllocCounting();
+                mSoakStartAllocSize = Debug.getGlobalAllocSize();
+            } else if (mStressing) {
+                mSoakEndMillis = System.currentTimeMillis();
+                mSoakEndGcCount = Debug.getGlobalGcInvocationCount();
+                mSoakEndAllocSize = Debug.getGlobalAllocSize();
+                Debug.stopAllocCounting();
             }
+            mStressing = stress;
         }
+        mSimulationThread.setStressDriver(stress ?
+                new StressDriver(glyphsPerSecond, rampPerSecond, System.nanoTime()) : null);
+    }
 
-        drawBalls(canvas, mClockBalls);
-        drawBalls(canvas, mAnimatingBalls);
+    /**
+     * Write the report of the current or last stress run to the log.
+     */
+    public void dumpSoakReport() {
+        SoakReport report = mSoakReport;
+        if (report == null) {
+            Log.i(TAG, "No stress run to report");
+            return;
+        }
+        for (String line : report.format().split("\n")) {
+            Log.i(TAG, line);
+        }
+        synchronized (mSurfaceHolder) {
+            long endMillis = mSoakEndMillis;
+            int endGcCount = mSoakEndGcCount;
+            int endAllocSize = mSoakEndAllocSize;
+            if (mStressing) {
+                endMillis = System.currentTimeMillis();
+                endGcCount = Debug.getGlobalGcInvocationCount();
+                endAllocSize = Debug.getGlobalAllocSize();
+            }
+            float seconds = Math.max(1, endMillis - mSoakStartMillis) / 1000f;
+            Log.i(TAG, String.format("gc           %d collections over %.0f s",
+                    endGcCount - mSoakStartGcCount, seconds));
+            Log.i(TAG, String.format("allocation   %.1f KB/s",
+                    (endAllocSize - mSoakStartAllocSize) / 1024f / seconds));
+        }
+    }
 
-        mLastDraw = startTime;
+    /**
+     * Write the frame timing histograms collected so far to the log.
+     */
+    public void dumpFrameStats() {
+        for (String line : mProfiler.dump().split("\n")) {
+            Log.i(TAG, line);
+        }
     }
 
-    private void drawBackground(Canvas canvas) {
-        canvas.drawColor(mBackgroundColor);
+    public void resetFrameStats() {
+        mProfiler.reset();
     }
 
-    private void createClockDigit(ArrayList<Ball> drawList, Ball[][] digit, float x, float y) {
-        /*
-         * Adjust for the fact that drawCircle draws at the center, but our
-         * API suggests that we draw at the upper-left bounding box.
-         */
-        x += mBallRadius;
-        y += mBallRadius;
-
-        float curX = x;
-        for (int posY = 0; posY < NumberFont.CONSTANT_HEIGHT; posY++) {
-            for (int posX = 0; posX < NumberFont.CONSTANT_WIDTH; posX++) {
-                Ball ball = new Ball(curX, y, mBallRadius, mGrayPaint);
-                drawList.add(ball);
-                digit[posX][posY] = ball;
-                curX += (mBallRadius * 2) + mBallSpacing;
+    public void setDrawing(boolean isDrawing) {
+        synchronized (mSurfaceHolder) {
+            mDrawing = isDrawing;
+            if (!isDrawing) {
+                releaseClockLayer();
+                mSprites.release();
             }
-            y += (mBallRadius * 2) + mBallSpacing;
-            curX = x;
+        }
+        if (!isDrawing) {
+            mSimulationThread.quit();
+            mPipeline.close();
         }
     }
 
-    private void createClockColon(ArrayList<Ball> drawList, float x, float y) {
-        float colonTopY = y + (mBallRadius * 5f) + (mBallSpacing * 2f);
-        float colonBottomY = colonTopY + (mBallRadius * 4f) + (mBallSpacing * 2f);
+    public void doTouchEvent(MotionEvent event) {
+        if (event.getAction() == MotionEvent.ACTION_UP) {
+            if (!mSimulationThread.spawnGlyph(event.getX(), event.getY()) && Constants.DEBUG) {
+                Log.d(TAG, "Spawn queue full, dropping tap");
+            }
+        }
+    }
 
-        drawList.add(new Ball(x, colonTopY, mBallRadius, mGrayPaint));
-        drawList.add(new Ball(x, colonBottomY, mBallRadius, mGrayPaint));
+    /**
+     * Number of buffers allocated for ball and collision bookkeeping so far.
+     * Should hold steady once the demo is warmed up. This is not a measure
+     * of allocation in general; see {@link BufferAllocationCounter}.
+     */
+    public static long getBufferAllocationCount() {
+        return BufferAllocationCounter.get();
     }
 
-    private void handleClock(Canvas canvas, long now) {
-        long timeLeft;
-        if (now >= Constants.COUNTDOWN_TO_WHEN) {
-            /*
-             * At first I thought something cool should happen when I/O begins.
-             * But no, you should put your phone away and enjoy the event :)
-             */
-            timeLeft = 0;
-        } else {
-            timeLeft = Constants.COUNTDOWN_TO_WHEN - now;
+    @Override
+    public void run() {
+        mSimulationThread.start();
+        try {
+            drawFrames();
+        } catch (InterruptedException e) {
+            /* Shutting down. */
+        } finally {
+            mSimulationThread.quit();
+            mPipeline.close();
         }
 
-        if (mClockBalls.isEmpty()) {
-            positionClock();
+        if (Constants.DEBUG) {
+            dumpFrameStats();
         }
+    }
 
-        mCurrentCountdown.setTimeLeft(timeLeft);
-
-        handleDigitChange(mDayDigits, mLastCountdown.days, mCurrentCountdown.days);
-        handleDigitChange(mHourDigits, mLastCountdown.hours, mCurrentCountdown.hours);
-        handleDigitChange(mMinuteDigits, mLastCountdown.minutes, mCurrentCountdown.minutes);
-        handleDigitChange(mSecondDigits, mLastCountdown.seconds, mCurrentCountdown.seconds);
+    private void drawFrames() throws InterruptedException {
+        long lastBufferCount = BufferAllocationCounter.get();
+        FrameProfiler profiler = mProfiler;
+        SnapshotPipeline pipeline = mPipeline;
+        while (mDrawing) {
+            FrameSnapshot snapshot = pipeline.beginRead();
+            if (snapshot == null) {
+                break;
+            }
+            long frameStart = System.nanoTime();
+            long waitNanos = 0;
 
-        mLastCountdown.setTimeLeft(mCurrentCountdown);
-    }
+            Rect dirty;
+            synchronized (mSurfaceHolder) {
+                updateStatsOverlay(frameStart);
+                dirty = mIncremental ? computeDirtyRegion(snapshot) : null;
+                profiler.add(FrameProfiler.PHASE_DRAW, frameStart);
+            }
 
-    private void handleDigitChange(DigitSet digitSet, int lastCount, int newCount) {
-        if (lastCount == newCount) {
-            return;
-        }
-        int numDigits = digitSet.getNumDigits();
-        int value = newCount;
-        while (numDigits-- > 0) {
-            int digitValue = value % 10;
-            Ball[][] digitBitmap = digitSet.bitmaps[numDigits];
-            Glyph glyph = NumberFont.sFont[digitValue];
-            for (int x = 0; x < NumberFont.CONSTANT_WIDTH; x++) {
-                for (int y = 0; y < NumberFont.CONSTANT_HEIGHT; y++) {
-                    Ball ball = digitBitmap[x][y];
-
-                    boolean shouldBeLit = glyph.isLit(x, y);
-                    boolean isLit = ball.paint != mGrayPaint;
-
-                    if (shouldBeLit != isLit) {
-                        if (isLit) {
-                            Ball anim = new Ball(ball.x, ball.y, ball.radius, ball.paint);
-                            anim.dx = randomFloatWithinRange(mBallMinDeltaX, mBallMaxDeltaX);
-                            anim.dy = randomFloatWithinRange(mBallMinDeltaY, mBallMaxDeltaY);
-                            mAnimatingBalls.add(anim);
-                        }
-                        ball.paint = shouldBeLit ? digitSet.litPaint : mGrayPaint;
+            long lockStart = System.nanoTime();
+            Canvas canvas = (dirty != null) ?
+                    mSurfaceHolder.lockCanvas(dirty) : mSurfaceHolder.lockCanvas();
+            long drawStart = profiler.add(FrameProfiler.PHASE_SURFACE_WAIT, lockStart);
+            waitNanos += drawStart - lockStart;
+            try {
+                synchronized (mSurfaceHolder) {
+                    if (dirty != null) {
+                        doDrawIncremental(canvas, dirty, snapshot);
+                    } else {
+                        doDraw(canvas, snapshot);
                     }
                 }
+            } finally {
+                long postStart = profiler.add(FrameProfiler.PHASE_DRAW, drawStart);
+                mSurfaceHolder.unlockCanvasAndPost(canvas);
+                waitNanos += profiler.add(FrameProfiler.PHASE_SURFACE_WAIT, postStart) -
+                        postStart;
             }
-            value /= 10;
-        }
-    }
-
-    private void updatePhysics() {
-        float verticalForce;
-        float horizontalForce;
-        if (mGData != null && mOrientation != null) {
-            float pitch = mOrientation[1];
-            horizontalForce = (float)(mPhysXAccel * (float)Math.sin(-pitch) * mElapsed);
-            verticalForce = (float)(mPhysYAccel * (float)Math.cos(-pitch) * mElapsed);
 
+            long frameEnd = profiler.add(FrameProfiler.PHASE_FRAME, frameStart);
             /*
-             * The device must be upside down, invert the vertical force so we
-             * "drop" toward the ceiling.
+             * The simulation thread works on the next frame while we draw
+             * this one, so a frame costs whichever of the two stages is
+             * slower, not both added together.
              */
-            if (mGData[0] < 0) {
-                verticalForce *= -1;
+            long drawNanos = frameEnd - frameStart - waitNanos;
+            long workNanos = Math.max(snapshot.getSimulationNanos(), drawNanos);
+            if (mStressing) {
+                mSoakReport.recordFrame(workNanos, snapshot.getAnimatingBalls().size());
             }
-        } else {
-            horizontalForce = 0f;
-            verticalForce = (float)(mPhysYAccel * mElapsed);
-        }
-
-        int N = mAnimatingBalls.size();
-        for (int i = 0; i < N; i++) {
-            Ball ball = mAnimatingBalls.get(i);
-
-            /* Apply the device pitch (as an accelerating force). */
-            float dx = ball.dx + horizontalForce;
-            ball.dx = dx;
-
-            /* Apply vertical acceleration. */
-            float dy = ball.dy + verticalForce;
-            float posy = ball.y + dy;
-            if ((posy > mCanvasHeight && dy > 0) || (posy < 0 && dy < 0)) {
-                if (dy > 0 && dy < mPhysMinYAccelAtBottom) {
-                    dy = mPhysMinYAccelAtBottom;
-                } if (dy < 0 && dy > -mPhysMinYAccelAtBottom) {
-                    dy = -mPhysMinYAccelAtBottom;
+            synchronized (mSurfaceHolder) {
+                if (mGovernorEnabled && mGovernor.recordFrame(workNanos)) {
+                    applyQualityLevel(mGovernor.getLevel());
                 }
-                dy *= -PHYS_Y_FRICTION_SORT_OF;
             }
-            ball.dy = dy;
-
-            /* Reposition. */
-            ball.x += dx;
-            ball.y = posy;
-
-            /* Prune. */
-            if (ball.x < 0 || ball.x > mCanvasWidth) {
-                mAnimatingBalls.remove(i);
-                N--;
-            } else {
-                /* Check for a hit (XXX: this algorithm is n^2). */
-                for (int j = 0; j < N; j++) {
-                    if (i == j) {
-                        continue;
-                    }
-                    Ball otherBall = mAnimatingBalls.get(j);
-                    if (otherBall.colliding(ball)) {
-                        otherBall.resolveCollision(ball);
-                    }
+            pipeline.endRead(snapshot);
+            profiler.endPhases(FrameProfiler.PHASE_DRAW, FrameProfiler.PHASE_FRAME);
+
+            if (Constants.DEBUG) {
+                long bufferCount = BufferAllocationCounter.get();
+                if (bufferCount != lastBufferCount) {
+                    Log.d(TAG, "Frame loop allocated " + (bufferCount - lastBufferCount) +
+                            " tracked buffer(s), total=" + bufferCount);
+                    lastBufferCount = bufferCount;
                 }
             }
         }
     }
 
-    private void drawBalls(Canvas canvas, ArrayList<Ball> balls) {
-        int N = balls.size();
-        for (int i = 0; i < N; i++) {
-            Ball ball = balls.get(i);
-            canvas.drawCircle(ball.x, ball.y, ball.radius, ball.paint);
-        }
+    private void doDraw(Canvas canvas, FrameSnapshot snapshot) {
+        drawBackground(canvas);
+        drawBalls(canvas, snapshot.getClockBalls(), 1f);
+        drawBalls(canvas, snapshot.getAnimatingBalls(), snapshot.getInterpolation());
+        drawStatsOverlay(canvas);
     }
 
-    private static class Ball {
-        public float x, y;
-        public float dx, dy;
-        public float radius;
-        public Paint paint;
-
-        public Ball(float x, float y, float radius) {
-            this(x, y, radius, null);
+    private void doDrawIncremental(Canvas canvas, Rect dirty, FrameSnapshot snapshot) {
+        if (mClockLayer == null) {
+            /* The surface was resized after we picked the dirty region. */
+            doDraw(canvas, snapshot);
+            return;
         }
+        canvas.drawBitmap(mClockLayer, dirty, dirty, null);
+        drawBalls(canvas, snapshot.getAnimatingBalls(), snapshot.getInterpolation());
+        drawStatsOverlay(canvas);
+    }
 
-        public Ball(float x, float y, float radius, Paint paint) {
-            this.x = x;
-            this.y = y;
-            this.radius = radius;
-            this.paint = paint;
+    /**
+     * Work out what needs redrawing this frame, re-rasterizing the cached
+     * clock layer first if the clock changed.
+     *
+     * @return The area to lock, or null to fall back to a full redraw (no
+     *         surface size yet).
+     */
+    private Rect computeDirtyRegion(FrameSnapshot snapshot) {
+        int width = mSurfaceWidth;
+        int height = mSurfaceHeight;
+        if (width <= 0 || height <= 0) {
+            return null;
         }
 
-        /**
-         * Somewhat sophisticated intersection test that takes into account
-         * object velocity to avoid missing detection when the objects would
-         * intersect at interpolated values between now and the next frame.
-         */
-        public boolean colliding(Ball ball) {
-            float dvx = ball.dx - dx;
-            float dvy = ball.dy - dy;
-            float dpx = ball.x - x;
-            float dpy = ball.y - y;
-            float r = ball.radius + radius;
-
-            /* Fail fast: check if they intersect now. */
-            float pp = dpx * dpx + dpy * dpy - r * r;
-            if (pp < 0) {
-                return true;
-            }
+        computeBallBounds(snapshot.getAnimatingBalls(), snapshot.getInterpolation(),
+                mBallBounds);
 
-            /* Fail fast: check if they are moving away from each other. */
-            float pv = dpx * dvx + dpy * dvy;
-            if (pv >= 0) {
-                return false;
+        int clockVersion = snapshot.getClockVersion();
+        if (mClockLayer == null || mClockLayerVersion != clockVersion) {
+            if (mClockLayer == null) {
+                mClockLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mClockLayerCanvas = new Canvas(mClockLayer);
             }
+            drawBackground(mClockLayerCanvas);
+            drawBalls(mClockLayerCanvas, snapshot.getClockBalls(), 1f);
+            mClockLayerVersion = clockVersion;
 
-            float vv = dvx * dvx + dvy * dvy;
-
-            /*
-             * Check if the spheres can intersect within a normal frame of
-             * animation (this doesn't apply acceleration and is kind of broken
-             * for that reason).  Oh well, no one will notice :)
-             */
-            if ((pv + vv) <= 0 && (vv + 2 * pv + pp) >= 0) {
-                return false;
+            mDirty.set(0, 0, width, height);
+        } else {
+            /* Erase the balls where they were, and draw where they are now. */
+            mDirty.set(mLastBallBounds);
+            mDirty.union(mBallBounds);
+            if (mStatsOverlay) {
+                mDirty.union(mStatsBounds);
             }
-
-            float D = pv * pv - pp * vv;
-            return D > 0;
-        }
-
-        /**
-         * Some vector maths to apply position and velocity changes after a
-         * collision has been detected.
-         */
-        public void resolveCollision(Ball ball) {
-            float dpx = x - ball.x;
-            float dpy = y - ball.y;
-            double d = Math.sqrt(dpx * dpx + dpy * dpy);
-            float mtdx = (float)(dpx * ((radius + ball.radius - d) / d));
-            float mtdy = (float)(dpy * ((radius + ball.radius - d) / d));
-            x += mtdx * 0.5f;
-            y += mtdy * 0.5f;
-            ball.x -= mtdx * 0.5f;
-            ball.y -= mtdy * 0.5f;
-            float ddx = dx - ball.dx;
-            float ddy = dy - ball.dy;
-            double mtdlen = Math.sqrt(mtdx * mtdx + mtdy * mtdy);
-            float normmtdx = (float)(mtdx / mtdlen);
-            float normmtdy = (float)(mtdy / mtdlen);
-            double dn = ddx * normmtdx + ddy * normmtdy;
-            if (dn > 0f) {
-                return;
+            if (mDirty.isEmpty() || !mDirty.intersect(0, 0, width, height)) {
+                /* Nothing moved; still post a frame but keep it tiny. */
+                mDirty.set(0, 0, 1, 1);
             }
-            float i = (float)-dn;
-            dx += normmtdx * i;
-            dy += normmtdy * i;
-            ball.dx -= normmtdx * i;
-            ball.dy -= normmtdy * i;
         }
 
-        @Override
-        public String toString() {
-            return String.format("{pos=(%.02f,%.02f); delta=(%.02f,%.02f); radius=%.01f}",
-                    x, y, dx, dy, radius);
-        }
+        mLastBallBounds.set(mBallBounds);
+        return mDirty;
     }
 
-    private static class CountdownClock {
-        public int days;
-        public int hours;
-        public int minutes;
-        public int seconds;
+    /**
+     * Apply the parts of a {@link QualityGovernor} level that concern
+     * drawing here, and hand the rest to the simulation. Caller must hold
+     * the surface holder lock.
+     */
+    private void applyQualityLevel(int level) {
+        boolean antiAlias = level < QualityGovernor.LEVEL_NO_ANTI_ALIAS;
+        for (Paint paint : mPaints) {
+            paint.setAntiAlias(antiAlias);
+        }
+        mSprites.setAntiAlias(antiAlias);
+        mSimulationThread.setQualityLevel(level);
+        if (Constants.DEBUG) {
+            Log.d(TAG, "Quality level " + level + " (" + QualityGovernor.getLevelName(level) +
+                    ")");
+        }
+    }
 
-        public CountdownClock() {
-            reset();
+    /**
+     * Rebuild the overlay text from the profiler if it's due. The strings are
+     * only rebuilt once per {@link #STATS_OVERLAY_INTERVAL_NANOS}, so the
+     * allocations this makes don't show up every frame.
+     */
+    private void updateStatsOverlay(long now) {
+        if (!mStatsOverlay || now - mLastStatsUpdate < STATS_OVERLAY_INTERVAL_NANOS) {
+            return;
+        }
+        mLastStatsUpdate = now;
+
+        FrameProfiler profiler = mProfiler;
+        String[] lines = new String[FrameProfiler.PHASE_COUNT + FrameProfiler.COUNT_COUNT + 1];
+        float width = 0;
+        for (int i = 0; i < FrameProfiler.PHASE_COUNT; i++) {
+            Histogram h = profiler.getPhase(i);
+            lines[i] = String.format("%-11s %6.2f %6.2f ms", FrameProfiler.getPhaseName(i),
+                    h.getValueAtPercentile(50) / 1000000.0,
+                    h.getValueAtPercentile(99) / 1000000.0);
+            width = Math.max(width, mStatsPaint.measureText(lines[i]));
         }
+        for (int i = 0; i < FrameProfiler.COUNT_COUNT; i++) {
+            Histogram h = profiler.getCount(i);
+            int line = FrameProfiler.PHASE_COUNT + i;
+            lines[line] = String.format("%-11s %6d %6d", FrameProfiler.getCountName(i),
+                    h.getValueAtPercentile(50), h.getValueAtPercentile(99));
+            width = Math.max(width, mStatsPaint.measureText(lines[line]));
+        }
+        int level = mGovernor.getLevel();
+        lines[lines.length - 1] = String.format("%-11s %6d %s", "quality", level,
+                QualityGovernor.getLevelName(level));
+        width = Math.max(width, mStatsPaint.measureText(lines[lines.length - 1]));
+        mStatsLines = lines;
+
+        int lineHeight = (int)Math.ceil(STATS_OVERLAY_TEXT_SIZE * 1.25f);
+        mStatsBounds.set(0, 0, (int)Math.ceil(width) + lineHeight,
+                lineHeight * (lines.length + 1));
+    }
 
-        public void setTimeLeft(long timeLeft) {
-            timeLeft /= 1000;
-            seconds = (int)(timeLeft % 60);
-            timeLeft /= 60;
-            minutes = (int)(timeLeft % 60);
-            timeLeft /= 60;
-            hours = (int)(timeLeft % 24);
-            timeLeft /= 24;
-            days = (int)timeLeft;
+    private void drawStatsOverlay(Canvas canvas) {
+        if (!mStatsOverlay) {
+            return;
         }
+        float lineHeight = (float)Math.ceil(STATS_OVERLAY_TEXT_SIZE * 1.25f);
+        float y = lineHeight;
+        String[] lines = mStatsLines;
+        for (int i = 0; i < lines.length; i++) {
+            canvas.drawText(lines[i], lineHeight / 2, y, mStatsPaint);
+            y += lineHeight;
+        }
+    }
 
-        public void setTimeLeft(CountdownClock source) {
-            days = source.days;
-            hours = source.hours;
-            minutes = source.minutes;
-            seconds = source.seconds;
+    /**
+     * Compute the pixel bounds of the balls as they'll be drawn (see
+     * {@link #drawBalls}), padded slightly for anti-aliasing.
+     */
+    private static void computeBallBounds(BallStore balls, float interpolation, Rect out) {
+        int N = balls.size();
+        if (N == 0) {
+            out.setEmpty();
+            return;
         }
 
-        public void reset() {
-            days = -1;
-            hours = -1;
-            minutes = -1;
-            seconds = -1;
+        float[] xs = balls.x;
+        float[] ys = balls.y;
+        float[] prevXs = balls.prevX;
+        float[] prevYs = balls.prevY;
+        float[] radii = balls.radius;
+
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < N; i++) {
+            float x = xs[i];
+            float y = ys[i];
+            if (interpolation < 1f) {
+                x = prevXs[i] + (x - prevXs[i]) * interpolation;
+                y = prevYs[i] + (y - prevYs[i]) * interpolation;
+            }
+            float r = radii[i];
+            if (x - r < left) left = x - r;
+            if (x + r > right) right = x + r;
+            if (y - r < top) top = y - r;
+            if (y + r > bottom) bottom = y + r;
         }
+
+        out.set((int)Math.floor(left) - 1, (int)Math.floor(top) - 1,
+                (int)Math.ceil(right) + 1, (int)Math.ceil(bottom) + 1);
     }
 
-    private static class DigitSet {
-        /**
-         * Bitmap of balls for each digit in the set.
-         */
-        public final Ball[][][] bitmaps =
-                new Ball[2][NumberFont.CONSTANT_WIDTH][NumberFont.CONSTANT_HEIGHT];
+    private void releaseClockLayer() {
+        if (mClockLayer != null) {
+            mClockLayer.recycle();
+            mClockLayer = null;
+            mClockLayerCanvas = null;
+        }
+        mLastBallBounds.setEmpty();
+    }
 
-        /**
-         * Paint to use when the ball is "lit" (not gray).
-         */
-        public final Paint litPaint;
+    private void drawBackground(Canvas canvas) {
+        canvas.drawColor(mBackgroundColor);
+    }
 
-        public DigitSet(Paint litPaint) {
-            this.litPaint = litPaint;
+    /**
+     * @param interpolation How far (0 to 1) between each ball's previous and
+     *            current position to draw it.
+     */
+    private void drawBalls(Canvas canvas, BallStore balls, float interpolation) {
+        if (mUseSprites && mSprites.isReady()) {
+            mSprites.draw(canvas, balls, interpolation);
+            return;
         }
 
-        public int getNumDigits() {
-            return bitmaps.length;
+        float[] xs = balls.x;
+        float[] ys = balls.y;
+        float[] radii = balls.radius;
+        byte[] colors = balls.color;
+        Paint[] paints = mPaints;
+
+        int N = balls.size();
+        if (interpolation >= 1f) {
+            for (int i = 0; i < N; i++) {
+                canvas.drawCircle(xs[i], ys[i], radii[i], paints[colors[i]]);
+            }
+        } else {
+            float[] prevXs = balls.prevX;
+            float[] prevYs = balls.prevY;
+            for (int i = 0; i < N; i++) {
+                float x = prevXs[i] + (xs[i] - prevXs[i]) * interpolation;
+                float y = prevYs[i] + (ys[i] - prevYs[i]) * interpolation;
+                canvas.drawCircle(x, y, radii[i], paints[colors[i]]);
+            }
         }
     }
 }
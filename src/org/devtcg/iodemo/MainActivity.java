@@ -26,9 +26,6 @@ public class MainActivity extends Activity {
         mSensorManager.registerListener(mMainView,
                 mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
                 SensorManager.SENSOR_DELAY_GAME);
-        mSensorManager.registerListener(mMainView,
-                mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
-                SensorManager.SENSOR_DELAY_GAME);
     }
 
     @Override
@@ -1,10 +1,11 @@
 package org.devtcg.iodemo;
 
+import org.devtcg.iodemo.sim.SensorSnapshot;
+
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
@@ -14,22 +15,11 @@ public class MainView extends SurfaceView implements SurfaceHolder.Callback, Sen
     private DrawThread mThread;
 
     /*
-     * Sensor data used to ultimately determine pitch and send that information
-     * along to the DrawThread.
-     */
-    private float[] mGData = new float[3];
-    private float[] mMData = new float[3];
-    private float[] mR = new float[16];
-    private float[] mI = new float[16];
-    private float[] mOrientation = new float[3];
-
-    /*
-     * Copy of data designated for the draw thread (this copy is used to limit
-     * the synchronization window so that the potentially expensive {@link
-     * SensorManager#getOrientation} call is not included in it).
+     * Lock-free handoff of raw accelerometer readings to the simulation
+     * thread, which works out the pitch itself once per frame. Sensor events
+     * never wait for a frame in progress, and do no math of their own.
      */
-    private float[] mGDataCopy = new float[mGData.length];
-    private float[] mOrientationCopy = new float[mOrientation.length];
+    private final SensorSnapshot mSensors = new SensorSnapshot();
 
     public MainView(Context context) {
         this(context, null);
@@ -61,7 +51,7 @@ public class MainView extends SurfaceView implements SurfaceHolder.Callback, Sen
         mThread = new DrawThread(holder, getContext());
         mThread.setDrawing(true);
         mThread.start();
-        mThread.setSensorData(mGDataCopy, mOrientationCopy);
+        mThread.setSensorData(mSensors);
     }
 
     public void surfaceDestroyed(SurfaceHolder holder) {
@@ -73,21 +63,16 @@ public class MainView extends SurfaceView implements SurfaceHolder.Callback, Sen
 
     public void onSensorChanged(SensorEvent event) {
         int type = event.sensor.getType();
-        if (type == Sensor.TYPE_ACCELEROMETER) {
-            System.arraycopy(event.values, 0, mGData, 0, event.values.length);
-        } else if (type == Sensor.TYPE_MAGNETIC_FIELD) {
-            System.arraycopy(event.values, 0, mMData, 0, event.values.length);
-        } else {
+        if (type != Sensor.TYPE_ACCELEROMETER) {
             throw new IllegalStateException("Unknown sensor type=" + type);
         }
 
-        SensorManager.getRotationMatrix(mR, mI, mGData, mMData);
-        SensorManager.getOrientation(mR, mOrientation);
+        /* Publish the new reading to the game thread. */
+        mSensors.write(event.values, event.timestamp);
 
-        /* Copy the new orientation data directly into the game thread. */
-        synchronized (getHolder()) {
-            System.arraycopy(mGData, 0, mGDataCopy, 0, mGData.length);
-            System.arraycopy(mOrientation, 0, mOrientationCopy, 0, mOrientation.length);
+        DrawThread thread = mThread;
+        if (thread != null) {
+            thread.onSensorDataChanged();
         }
     }
 }
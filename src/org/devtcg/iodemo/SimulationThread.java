@@ -0,0 +1,489 @@
+package org.devtcg.iodemo;
+
+import org.devtcg.iodemo.sim.BallSimulation;
+import org.devtcg.iodemo.sim.BufferAllocationCounter;
+import org.devtcg.iodemo.sim.FrameProfiler;
+import org.devtcg.iodemo.sim.FrameScheduler;
+import org.devtcg.iodemo.sim.FrameSnapshot;
+import org.devtcg.iodemo.sim.GravityFilter;
+import org.devtcg.iodemo.sim.QualityGovernor;
+import org.devtcg.iodemo.sim.SensorSnapshot;
+import org.devtcg.iodemo.sim.SessionRecorder;
+import org.devtcg.iodemo.sim.Simulation;
+import org.devtcg.iodemo.sim.SnapshotPipeline;
+import org.devtcg.iodemo.sim.SpawnQueue;
+import org.devtcg.iodemo.sim.StateFile;
+import org.devtcg.iodemo.sim.StressDriver;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Steps a {@link BallSimulation} at the target frame rate and publishes each
+ * frame to a {@link SnapshotPipeline} for {@link DrawThread} to rasterize,
+ * so that physics for the next frame overlaps drawing of the current one.
+ * <p>
+ * The simulation itself is only touched by this thread, or by others while
+ * holding {@link #getLock}.
+ * <p>
+ * Given a state file, the simulation is restored from it before the first
+ * frame and saved back to it when the thread quits, so the scene carries on
+ * where it left off the next time the surface comes up; see
+ * {@link StateFile}. Nobody waits for the save: instead the next thread
+ * given a state file waits for the one before it to finish before
+ * restoring. The file is deleted once restored, so a scene is never brought
+ * back twice (e.g. after a crash).
+ */
+class SimulationThread extends Thread {
+    private static final String TAG = SimulationThread.class.getSimpleName();
+
+    /* Pending taps beyond this are dropped rather than blocking the UI. */
+    private static final int SPAWN_QUEUE_CAPACITY = 64;
+
+    private static final int DEFAULT_TARGET_FPS = 60;
+
+    /*
+     * When idle, wake this long after the clock is due to tick so the wall
+     * clock has definitely rolled over by the time we read it.
+     */
+    private static final long IDLE_TICK_SLACK_MILLIS = 5;
+
+    /* Pitch change (in radians) that wakes an idle simulation. */
+    private static final float SENSOR_WAKE_PITCH = 0.05f;
+
+    private final BallSimulation mSimulation;
+
+    /*
+     * Where inputs go: the simulation itself, or a recorder wrapping it (see
+     * Constants#RECORD_SESSIONS).
+     */
+    private final Simulation mInput;
+    private final SessionRecorder mRecorder;
+
+    /* Where the simulation is saved between runs, or null to start fresh. */
+    private final File mStateFile;
+
+    /*
+     * The last thread constructed with a state file that hasn't finished
+     * yet, and the one before this one (which may still be saving the state
+     * we're to restore), if any.
+     */
+    private static SimulationThread sLastSaving;
+    private SimulationThread mPreviousSaving;
+
+    private final SnapshotPipeline mPipeline;
+    private final FrameProfiler mProfiler;
+
+    private final Object mLock = new Object();
+
+    private volatile boolean mRunning = true;
+
+    /**
+     * Latest accelerometer reading published by the MainView sensor
+     * callback, smoothed here once per frame.
+     */
+    private volatile SensorSnapshot mSensors;
+    private final SensorSnapshot.Sample mSensorSample = new SensorSnapshot.Sample();
+    private final GravityFilter mGravityFilter = new GravityFilter();
+
+    /* Gravity as of the last frame, to judge whether new readings matter. */
+    private volatile float mAppliedPitch;
+    private volatile boolean mAppliedUpsideDown;
+    private final SensorSnapshot.Sample mWakeSample = new SensorSnapshot.Sample();
+
+    /*
+     * Paces frames while balls are animating; otherwise sleeps until the
+     * clock ticks or something wakes us.
+     */
+    private final FrameScheduler mScheduler = new FrameScheduler(DEFAULT_TARGET_FPS);
+
+    /* Taps from the UI thread, drained at the start of each frame. */
+    private final SpawnQueue mSpawnQueue = new SpawnQueue(SPAWN_QUEUE_CAPACITY);
+
+    /* Guarded by mLock. */
+    private StressDriver mStressDriver;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+
+    /*
+     * Quality level requested by the renderer, and the one (along with the
+     * step rate it was applied on top of) that the simulation is set up for.
+     */
+    private volatile int mQualityLevel = QualityGovernor.LEVEL_FULL;
+    private int mAppliedQualityLevel = QualityGovernor.LEVEL_FULL;
+    private int mStepRate;
+    private int mAppliedBroadphaseInterval = 1;
+
+    /**
+     * @param recorder Recorder wrapping {@code simulation} to send all input
+     *            through, or null to not record.
+     * @param stateFile File to restore the simulation from and save it to, or
+     *            null to always start fresh. Should be null when recording,
+     *            since a recording has to start from the seed.
+     */
+    public SimulationThread(BallSimulation simulation, SessionRecorder recorder,
+            File stateFile, SnapshotPipeline pipeline, FrameProfiler profiler) {
+        super(TAG);
+        mSimulation = simulation;
+        mRecorder = recorder;
+        mStateFile = stateFile;
+        mInput = (recorder != null) ? recorder : simulation;
+        mPipeline = pipeline;
+        mProfiler = profiler;
+        mStepRate = simulation.getFixedStepRate();
+        if (stateFile != null) {
+            synchronized (SimulationThread.class) {
+                mPreviousSaving = sLastSaving;
+                sLastSaving = this;
+            }
+        }
+    }
+
+    /**
+     * Lock to hold while touching the simulation from any other thread,
+     * e.g. to change its settings.
+     */
+    public Object getLock() {
+        return mLock;
+    }
+
+    public BallSimulation getSimulation() {
+        return mSimulation;
+    }
+
+    /**
+     * @see Simulation#setSurfaceSize
+     */
+    public void setSurfaceSize(int width, int height) {
+        synchronized (mLock) {
+            mInput.setSurfaceSize(width, height);
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
+            if (mStressDriver != null) {
+                mStressDriver.setSurfaceSize(width, height);
+            }
+        }
+    }
+
+    /**
+     * @see BallSimulation#setFixedStepRate
+     */
+    public void setFixedStepRate(int stepsPerSecond) {
+        synchronized (mLock) {
+            mStepRate = stepsPerSecond;
+            applyQualityLevel(mAppliedQualityLevel);
+        }
+    }
+
+    /**
+     * Trade simulation accuracy for speed as described by the
+     * {@link QualityGovernor} levels. Takes effect from the next frame.
+     */
+    public void setQualityLevel(int level) {
+        mQualityLevel = level;
+    }
+
+    /**
+     * Spawn glyphs from {@code driver} every frame, and keep producing frames
+     * at the target rate even when nothing would otherwise be animating.
+     * Pass null to stop.
+     */
+    public void setStressDriver(StressDriver driver) {
+        synchronized (mLock) {
+            if (driver != null) {
+                driver.setSurfaceSize(mSurfaceWidth, mSurfaceHeight);
+            }
+            mStressDriver = driver;
+        }
+        mScheduler.wake();
+    }
+
+    public void setSensorData(SensorSnapshot sensors) {
+        mSensors = sensors;
+    }
+
+    /**
+     * Called from the sensor thread after each new reading is published.
+     * Wakes an idle simulation if gravity has changed appreciably.
+     */
+    public void onSensorDataChanged() {
+        SensorSnapshot sensors = mSensors;
+        if (sensors == null || !mScheduler.isIdle()) {
+            return;
+        }
+        SensorSnapshot.Sample sample = mWakeSample;
+        if (sensors.read(sample)) {
+            if (Math.abs(GravityFilter.getPitch(sample) - mAppliedPitch) > SENSOR_WAKE_PITCH ||
+                    (sample.gravityX < 0) != mAppliedUpsideDown) {
+                mScheduler.wake();
+            }
+        }
+    }
+
+    /**
+     * Queue a glyph to spawn at the start of the next frame.
+     *
+     * @return False if too many taps are already pending.
+     */
+    public boolean spawnGlyph(float x, float y) {
+        if (!mSpawnQueue.offer(x, y)) {
+            return false;
+        }
+        mScheduler.wake();
+        return true;
+    }
+
+    public void setTargetFps(int targetFps) {
+        mScheduler.setTargetFps(targetFps);
+    }
+
+    /**
+     * Produce a frame now even if nothing is animating.
+     */
+    public void wake() {
+        mScheduler.wake();
+    }
+
+    /**
+     * Stop after the current frame. The pipeline must also be closed if the
+     * renderer has stopped taking snapshots.
+     */
+    public void quit() {
+        mRunning = false;
+        mScheduler.wake();
+    }
+
+    @Override
+    public void run() {
+        long lastBufferCount = BufferAllocationCounter.get();
+        FrameProfiler profiler = mProfiler;
+        FrameScheduler scheduler = mScheduler;
+        SnapshotPipeline pipeline = mPipeline;
+        try {
+            /* Inside the try, so a failed restore still releases the recorder. */
+            if (mStateFile != null) {
+                restoreState();
+            }
+            while (mRunning) {
+                long frameStart = System.nanoTime();
+                long now = System.currentTimeMillis();
+
+                FrameSnapshot snapshot = pipeline.beginWrite();
+                if (snapshot == null) {
+                    break;
+                }
+
+                boolean animating;
+                long untilClockChange;
+                synchronized (mLock) {
+                    long simulateStart = System.nanoTime();
+                    int qualityLevel = mQualityLevel;
+                    if (qualityLevel != mAppliedQualityLevel) {
+                        applyQualityLevel(qualityLevel);
+                    }
+                    mSpawnQueue.drainTo(mInput);
+                    if (mStressDriver != null) {
+                        mStressDriver.drive(mInput, frameStart);
+                    }
+                    updateGravity();
+                    mInput.update(now, frameStart);
+                    animating = mSimulation.isAnimating() || mStressDriver != null;
+                    untilClockChange = mSimulation.getMillisUntilClockChange(now);
+
+                    long snapshotStart = System.nanoTime();
+                    snapshot.capture(mSimulation);
+                    long snapshotEnd = profiler.add(FrameProfiler.PHASE_SNAPSHOT, snapshotStart);
+                    snapshot.setSimulationNanos(snapshotEnd - simulateStart);
+                }
+                pipeline.publish(snapshot);
+
+                profiler.endPhases(FrameProfiler.PHASE_CLOCK, FrameProfiler.PHASE_SNAPSHOT);
+                profiler.endCounts();
+
+                if (Constants.DEBUG) {
+                    long bufferCount = BufferAllocationCounter.get();
+                    if (bufferCount != lastBufferCount) {
+                        Log.d(TAG, "Simulation allocated " +
+                                (bufferCount - lastBufferCount) + " tracked buffer(s), total=" +
+                                bufferCount);
+                        lastBufferCount = bufferCount;
+                    }
+                }
+
+                if (animating) {
+                    scheduler.awaitFrame();
+                } else {
+                    /*
+                     * Nothing is moving, so the next frame can't look any
+                     * different until the clock ticks. Once the countdown is
+                     * over just check back once a second.
+                     */
+                    long idleMillis = (untilClockChange >= 0 ? untilClockChange : 1000) +
+                            IDLE_TICK_SLACK_MILLIS;
+                    scheduler.awaitIdle(frameStart + idleMillis * 1000000L);
+                }
+            }
+        } catch (InterruptedException e) {
+            /* Shutting down. */
+        } finally {
+            if (mStateFile != null) {
+                saveState();
+                synchronized (SimulationThread.class) {
+                    if (sLastSaving == this) {
+                        sLastSaving = null;
+                    }
+                }
+            }
+            if (mRecorder != null) {
+                closeRecorder();
+            }
+        }
+    }
+
+    /**
+     * Configure the simulation for {@code level}. Settings go through mInput
+     * so that a recorded session replays with the same ones, on the same
+     * frames. Caller must hold mLock.
+     */
+    private void applyQualityLevel(int level) {
+        BallSimulation simulation = mSimulation;
+        Simulation input = mInput;
+        int stepRate = mStepRate;
+        if (level >= QualityGovernor.LEVEL_HALF_STEP_RATE && stepRate > 1) {
+            stepRate /= 2;
+        }
+        if (stepRate != simulation.getFixedStepRate()) {
+            input.setFixedStepRate(stepRate);
+        }
+
+        int broadphaseInterval = level >= QualityGovernor.LEVEL_ALTERNATE_BROADPHASE ? 2 : 1;
+        if (broadphaseInterval != mAppliedBroadphaseInterval) {
+            input.setBroadphaseInterval(broadphaseInterval);
+            mAppliedBroadphaseInterval = broadphaseInterval;
+        }
+
+        if (level < QualityGovernor.LEVEL_CAP_SPAWNS) {
+            if (mAppliedQualityLevel >= QualityGovernor.LEVEL_CAP_SPAWNS) {
+                input.setSpawnLimit(Integer.MAX_VALUE);
+            }
+        } else if (mAppliedQualityLevel < QualityGovernor.LEVEL_CAP_SPAWNS) {
+            /* Hold the line at however many balls it took to get here. */
+            input.setSpawnLimit(simulation.getAnimatingBalls().size());
+        }
+
+        mAppliedQualityLevel = level;
+    }
+
+    private void restoreState() {
+        SimulationThread previous = mPreviousSaving;
+        mPreviousSaving = null;
+        if (previous != null) {
+            try {
+                previous.join();
+            } catch (InterruptedException e) {
+                /* Quitting already; leave the state for the next thread. */
+                return;
+            }
+        }
+
+        synchronized (mLock) {
+            long start = System.nanoTime();
+            try {
+                if (!StateFile.restore(mStateFile, mSimulation)) {
+                    return;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to restore saved state, starting fresh", e);
+                mStateFile.delete();
+                return;
+            }
+            mStateFile.delete();
+
+            /* The state brings its own surface size; ours wins if we have one. */
+            if (mSurfaceWidth > 0 && mSurfaceHeight > 0) {
+                mInput.setSurfaceSize(mSurfaceWidth, mSurfaceHeight);
+            }
+            if (Constants.DEBUG) {
+                Log.d(TAG, "Restored " + mSimulation.getAnimatingBalls().size() + " balls in " +
+                        (System.nanoTime() - start) / 1000 + " us");
+            }
+        }
+    }
+
+    /**
+     * Copy the state while holding the lock, then write it out (which may
+     * take a while to sync) without it.
+     */
+    private void saveState() {
+        ByteBuffer state;
+        synchronized (mLock) {
+            /* Never got a surface, so there's no scene worth keeping. */
+            if (mSurfaceWidth <= 0 || mSurfaceHeight <= 0) {
+                return;
+            }
+            state = StateFile.capture(mSimulation);
+        }
+        long start = System.nanoTime();
+        try {
+            StateFile.write(state, mStateFile);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save state", e);
+            mStateFile.delete();
+            return;
+        }
+        if (Constants.DEBUG) {
+            Log.d(TAG, "Saved " + state.limit() + " bytes in " +
+                    (System.nanoTime() - start) / 1000 + " us");
+        }
+    }
+
+    private void closeRecorder() {
+        synchronized (mLock) {
+            try {
+                mRecorder.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to finish session recording", e);
+            }
+            if (mRecorder.getError() != null) {
+                Log.w(TAG, "Session recording stopped early", mRecorder.getError());
+            }
+        }
+    }
+
+    /**
+     * Translate the device orientation into a gravity vector for the
+     * simulation.
+     */
+    private void updateGravity() {
+        SensorSnapshot sensors = mSensors;
+        SensorSnapshot.Sample sample = mSensorSample;
+        GravityFilter filter = mGravityFilter;
+        if (sensors != null && sensors.read(sample)) {
+            filter.update(sample);
+        }
+        if (filter.hasSample()) {
+            float pitch = filter.getPitch();
+            boolean upsideDown = filter.getX() < 0;
+            float gravityX = (float)Math.sin(-pitch);
+            float gravityY = (float)Math.cos(-pitch);
+
+            /*
+             * The device must be upside down, invert the vertical force so we
+             * "drop" toward the ceiling.
+             */
+            if (upsideDown) {
+                gravityY *= -1;
+            }
+
+            mAppliedPitch = pitch;
+            mAppliedUpsideDown = upsideDown;
+
+            mInput.setGravity(gravityX, gravityY);
+        } else {
+            mInput.setGravity(0f, 1f);
+        }
+    }
+}
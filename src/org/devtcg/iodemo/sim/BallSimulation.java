@@ -0,0 +1,1381 @@
+package org.devtcg.iodemo.sim;
+
+import org.devtcg.iodemo.sim.NumberFont.Glyph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Simulation of the countdown clock: lays out the clock balls, lights them
+ * as the countdown ticks, and releases balls that turn off into a bouncing
+ * physics simulation.
+ */
+public class BallSimulation implements Simulation {
+    /*
+     * Ratios are relative to the ball radius, which will be computed
+     * dynamically to ensure that it fits ideally on all possible device
+     * resolutions (for instance, on a tablet). This looks like just nonsense
+     * though. I admit, it was an afterthought but no time to fix things now :)
+     */
+    private static final float PHYS_X_ACCEL_RATIO = (12f / 5f);
+    private static final float PHYS_Y_ACCEL_RATIO = (12f / 5f);
+    private static final float PHYS_Y_FRICTION_SORT_OF = 0.90f;
+    private static final float PHYS_MIN_Y_ACCEL_AT_BOTTOM_RATIO = (5f / 5f);
+    private static final float BALL_SPACING_RATIO = 0.6f;
+    private static final float DIGIT_SPACING_RATIO = 2.4f;
+    private static final float BALL_MIN_DELTA_X_RATIO = -(6f / 5f);
+    private static final float BALL_MAX_DELTA_X_RATIO = (6f / 5f);
+    private static final float BALL_MIN_DELTA_Y_RATIO = -(4f / 5f);
+    private static final float BALL_MAX_DELTA_Y_RATIO = (1f / 5f);
+
+    /**
+     * Broadphase that tests every pair of animating balls. Kept around as a
+     * reference to compare the other broadphases against.
+     */
+    public static final int BROADPHASE_ALL_PAIRS = 0;
+
+    /**
+     * Broadphase that buckets balls into a uniform grid of cells roughly one
+     * ball diameter wide and only tests balls in neighboring cells.
+     */
+    public static final int BROADPHASE_GRID = 1;
+
+    /**
+     * Broadphase that keeps balls sorted along x from step to step and only
+     * tests balls whose extents overlap. Applies to single threaded stepping;
+     * parallel steps always use the grid.
+     */
+    public static final int BROADPHASE_SWEEP_AND_PRUNE = 2;
+
+    private static final float GRID_CELL_SIZE_RATIO = 2f;
+
+    /**
+     * Cap on how many impacts {@link #setContinuousCollisions continuous
+     * collision detection} advances to within one step. Anything left over is
+     * resolved by pushing overlapping balls apart as usual.
+     */
+    static final int MAX_TOI_ITERATIONS = 8;
+
+    /*
+     * A ball that moves less than SLEEP_SPEED_RATIO radii per reference step
+     * (plus one step's worth of gravity) for SLEEP_SECONDS has come to rest
+     * and is put to sleep. That's measured from where each step actually
+     * leaves the ball, after collisions, since a ball wedged in a pile can
+     * carry a sizable velocity that the collisions cancel out every step.
+     * See also BallStore#resolveCollision, which only wakes a sleeping ball
+     * for a hit well above that speed.
+     */
+    private static final float SLEEP_SECONDS = 0.25f;
+    private static final float SLEEP_SPEED_RATIO = 0.05f;
+
+    /*
+     * Change in the (unit) gravity vector that wakes every sleeping ball;
+     * about 3 degrees of tilt.
+     */
+    private static final float WAKE_GRAVITY_DELTA = 0.05f;
+
+    /**
+     * Balls integrated per task when integration is spread across threads.
+     */
+    private static final int INTEGRATE_CHUNK_SIZE = 1024;
+
+    /**
+     * Rate (in steps per second) that ball velocities are expressed in. This
+     * is the frame rate the physics constants were originally tuned against;
+     * a fixed step at any other rate scales velocities accordingly.
+     */
+    private static final int REFERENCE_STEP_RATE = 60;
+
+    /**
+     * Default fixed simulation rate; see {@link #setFixedStepRate}.
+     */
+    private static final int DEFAULT_STEP_RATE = REFERENCE_STEP_RATE;
+
+    /**
+     * Caps how much simulated time we'll try to catch up on in a single frame
+     * so that a long stall (or the debugger) doesn't trigger a burst of
+     * substeps that makes the next frame even slower.
+     */
+    private static final int MAX_STEPS_PER_FRAME = 8;
+
+    /**
+     * Default upper bound on simultaneously animating balls. Spawns beyond
+     * this are dropped rather than growing the ball store mid-animation.
+     */
+    public static final int DEFAULT_MAX_ANIMATING_BALLS = 8192;
+
+    /* 8 digits plus 3 colons of 2 balls each. */
+    private static final int CLOCK_BALL_COUNT =
+            8 * NumberFont.CONSTANT_WIDTH * NumberFont.CONSTANT_HEIGHT + 3 * 2;
+
+    /* Fixed size part of the saved state; see writeState. */
+    private static final int STATE_HEADER_BYTES = 8 + 8 + 2 * 4 + 4 * 4 + 4 * 2 * 4 + 4;
+
+    private final SeededRandom mRandom;
+
+    /**
+     * Time (in milliseconds since the epoch) that the clock counts down to.
+     */
+    private final long mCountdownTo;
+
+    /**
+     * All animating balls on screen (does not include the balls used to draw
+     * the clock).
+     */
+    private final BallStore mAnimatingBalls;
+
+    /**
+     * Static balls on screen used for the clock. Balls will be copied from
+     * this set when they are to begin animating. These balls merely change
+     * color index to "light up".
+     * <p>
+     * This set includes the balls to draw the colon separating each set of
+     * digits. It is filled once, at construction; resizing only moves the
+     * balls (see {@link #positionClock}).
+     */
+    private final BallStore mClockBalls = new BallStore(CLOCK_BALL_COUNT);
+
+    /*
+     * Organization of each part of the clock in terms of the ball objects that
+     * are used to draw it. The purpose of this organization is to be able to
+     * conveniently determine which balls are being "turned off" when the digit
+     * changes so that they can be copied into the animating set and thus begin
+     * animating.
+     */
+    private final DigitSet mDayDigits;
+    private final DigitSet mHourDigits;
+    private final DigitSet mMinuteDigits;
+    private final DigitSet mSecondDigits;
+
+    /**
+     * Strategy used to find candidate ball pairs for collision detection; see
+     * {@link #BROADPHASE_ALL_PAIRS}, {@link #BROADPHASE_GRID} and
+     * {@link #BROADPHASE_SWEEP_AND_PRUNE}.
+     */
+    private int mBroadphase = BROADPHASE_GRID;
+
+    private final SpatialHashGrid mGrid = new SpatialHashGrid();
+    private final SweepAndPrune mSweep = new SweepAndPrune();
+
+    /* Old to new ball index mapping from the last prune; see SweepAndPrune. */
+    private int[] mPruneRemap = new int[0];
+    private final PairBuffer mCollisionPairs = new PairBuffer(256);
+
+    /*
+     * Steps between broadphase runs, and whether mCollisionPairs still
+     * indexes the current balls so it can be reused in between; see
+     * setBroadphaseInterval.
+     */
+    private int mBroadphaseInterval = 1;
+    private int mStepsSinceBroadphase;
+    private boolean mPairsValid;
+    private int mPairsBroadphase;
+
+    /* Spawned glyphs are dropped once there are this many animating balls. */
+    private int mSpawnLimit;
+
+    /**
+     * Threads to spread each physics step across, or null to step on the
+     * calling thread only; see {@link #setThreadCount}.
+     */
+    private WorkerPool mWorkers;
+    private final StripPartition mStrips = new StripPartition();
+
+    /**
+     * Optional sink for per-phase timings; see {@link #setProfiler}.
+     */
+    private FrameProfiler mProfiler;
+    private long mPhaseStart;
+
+    /* Integration loop, and its inputs for the step in progress. */
+    private IntegrateKernel mIntegrateKernel = new ScalarIntegrateKernel();
+    private final IntegrateKernel.Step mIntegrateStep = new IntegrateKernel.Step();
+
+    /**
+     * Whether collisions are found by time of impact; see
+     * {@link #setContinuousCollisions}.
+     */
+    private boolean mContinuousCollisions;
+
+    /* Gravity as of the last time every ball was woken; see setGravity. */
+    private float mWakeGravityX = 0f;
+    private float mWakeGravityY = 1f;
+    private float[] mImpactTimes = new float[0];
+    private int mResolvePhase;
+
+    private final WorkerPool.Task mIntegrateTask = new WorkerPool.Task() {
+        public void run(int chunk) {
+            int from = chunk * INTEGRATE_CHUNK_SIZE;
+            integrate(from, Math.min(from + INTEGRATE_CHUNK_SIZE, mAnimatingBalls.size()));
+        }
+    };
+
+    private final WorkerPool.Task mResolveTask = new WorkerPool.Task() {
+        public void run(int index) {
+            resolveStrip(index * 2 + mResolvePhase);
+        }
+    };
+
+    private int mCanvasWidth;
+    private int mCanvasHeight;
+
+    /* The following are computed at runtime based on the device resolution. */
+    private float mDigitSpacing;
+    private float mBallRadius;
+    private float mBallSpacing;
+    private float mBallMinDeltaX;
+    private float mBallMaxDeltaX;
+    private float mBallMinDeltaY;
+    private float mBallMaxDeltaY;
+    private float mPhysXAccel;
+    private float mPhysYAccel;
+    private float mPhysMinYAccelAtBottom;
+
+    /**
+     * Pull applied to the animating balls; see {@link #setGravity}.
+     */
+    private float mGravityX = 0f;
+    private float mGravityY = 1f;
+
+    /**
+     * Time of the last update (in nanoseconds, from {@link System#nanoTime}).
+     */
+    private long mLastUpdate;
+
+    /**
+     * Whether there were animating balls as of the last update.
+     */
+    private boolean mWasAnimating;
+
+    /**
+     * During a physics step represents the amount of time (in seconds) that
+     * the step covers.
+     */
+    private double mElapsed;
+
+    /**
+     * During a physics step represents the number of reference frames (see
+     * {@link #REFERENCE_STEP_RATE}) that the step covers. Ball velocities are
+     * multiplied by this before being applied to positions.
+     */
+    private float mVelocityScale;
+
+    /**
+     * Duration of one fixed physics step in nanoseconds, or 0 to step once
+     * per drawn frame by however long the frame took (the original behaviour,
+     * which makes ball speed depend on the frame rate).
+     */
+    private long mStepNanos = 1000000000L / DEFAULT_STEP_RATE;
+
+    /**
+     * Simulated time owed to the fixed step integrator but not yet stepped.
+     * Always less than one step after a frame's physics has run.
+     */
+    private long mAccumulatedNanos;
+
+    /**
+     * Fraction of a step that {@link #mAccumulatedNanos} represents, used to
+     * interpolate drawn ball positions between the last two physics steps.
+     */
+    private float mInterpolation = 1f;
+
+    /**
+     * Records the previous times so that if they change we can animate the
+     * bouncing balls.
+     */
+    private final CountdownClock mLastCountdown = new CountdownClock();
+
+    /**
+     * Convenient container for the current countdown (to compare with the last
+     * one).
+     */
+    private final CountdownClock mCurrentCountdown = new CountdownClock();
+
+    /**
+     * Bumped whenever a clock ball moves or changes color; see
+     * {@link #getClockVersion}.
+     */
+    private int mClockVersion;
+
+    public BallSimulation(long countdownTo, long seed) {
+        this(countdownTo, seed, DEFAULT_MAX_ANIMATING_BALLS);
+    }
+
+    /**
+     * @param countdownTo Time (in milliseconds since the epoch) to count down
+     *            to.
+     * @param seed Seed for the random number generator used to pick ball
+     *            velocities and colors, so that runs can be reproduced.
+     * @param maxAnimatingBalls Capacity of the animating ball store.
+     */
+    public BallSimulation(long countdownTo, long seed, int maxAnimatingBalls) {
+        mCountdownTo = countdownTo;
+        mRandom = new SeededRandom(seed);
+        mAnimatingBalls = new BallStore(maxAnimatingBalls);
+        mSpawnLimit = maxAnimatingBalls;
+
+        mDayDigits = new DigitSet(BallStore.COLOR_PURPLE);
+        mHourDigits = new DigitSet(BallStore.COLOR_BLUE);
+        mMinuteDigits = new DigitSet(BallStore.COLOR_RED);
+        mSecondDigits = new DigitSet(BallStore.COLOR_GREEN);
+
+        for (int i = 0; i < CLOCK_BALL_COUNT; i++) {
+            mClockBalls.add(0f, 0f, 0f, BallStore.COLOR_GRAY);
+        }
+        positionClock();
+    }
+
+    public void setSurfaceSize(int width, int height) {
+        mCanvasWidth = width;
+        mCanvasHeight = height;
+        computeBallRadiusAndSizings();
+        positionClock();
+    }
+
+    public void setGravity(float x, float y) {
+        mGravityX = x;
+        mGravityY = y;
+
+        /*
+         * Compare against the gravity the balls were last woken under, so a
+         * slow tilt can't creep past the threshold one frame at a time.
+         */
+        float deltaX = x - mWakeGravityX;
+        float deltaY = y - mWakeGravityY;
+        if (deltaX * deltaX + deltaY * deltaY > WAKE_GRAVITY_DELTA * WAKE_GRAVITY_DELTA) {
+            mWakeGravityX = x;
+            mWakeGravityY = y;
+            mAnimatingBalls.wakeAll();
+        }
+    }
+
+    public void setBroadphase(int broadphase) {
+        if (broadphase != BROADPHASE_ALL_PAIRS && broadphase != BROADPHASE_GRID &&
+                broadphase != BROADPHASE_SWEEP_AND_PRUNE) {
+            throw new IllegalArgumentException("Unknown broadphase=" + broadphase);
+        }
+        if (broadphase != mBroadphase && !mContinuousCollisions) {
+            mSweep.reset();
+        }
+        mBroadphase = broadphase;
+    }
+
+    /**
+     * Run physics in fixed steps of {@code 1 / stepsPerSecond} seconds,
+     * decoupled from the frame rate. When the step rate exceeds the frame
+     * rate several steps are run per frame, and drawn positions are
+     * interpolated between steps. Pass 0 to step once per frame instead.
+     */
+    public void setFixedStepRate(int stepsPerSecond) {
+        if (stepsPerSecond < 0) {
+            throw new IllegalArgumentException("stepsPerSecond=" + stepsPerSecond);
+        }
+        mStepNanos = stepsPerSecond > 0 ? 1000000000L / stepsPerSecond : 0;
+        mAccumulatedNanos = 0;
+    }
+
+    /**
+     * Replace the loop that applies forces to and moves the balls each step,
+     * e.g. with a vectorized one. The default is a
+     * {@link ScalarIntegrateKernel}.
+     */
+    public void setIntegrateKernel(IntegrateKernel kernel) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("kernel must not be null");
+        }
+        mIntegrateKernel = kernel;
+    }
+
+    /**
+     * @return Steps per second, or 0 if stepping once per frame.
+     * @see #setFixedStepRate
+     */
+    public int getFixedStepRate() {
+        return mStepNanos > 0 ? (int)Math.round(1000000000.0 / mStepNanos) : 0;
+    }
+
+    /**
+     * Run the broadphase only every {@code steps} physics steps, and on the
+     * steps in between test just the pairs it found last time. Pairs that
+     * were already close are still checked every step; balls that were
+     * farther apart than the broadphase looks may pass into each other for
+     * up to {@code steps - 1} steps before the hit is noticed. Applies to the
+     * grid and sweep-and-prune broadphases when stepping on one thread
+     * without continuous collisions. 1 (the default) runs it every step.
+     */
+    public void setBroadphaseInterval(int steps) {
+        if (steps < 1) {
+            throw new IllegalArgumentException("steps=" + steps);
+        }
+        mBroadphaseInterval = steps;
+    }
+
+    /**
+     * Drop glyphs spawned by {@link #spawnGlyph} once there are
+     * {@code maxBalls} animating balls. Balls released by the clock are not
+     * affected. Defaults to the capacity of the animating ball store.
+     */
+    public void setSpawnLimit(int maxBalls) {
+        mSpawnLimit = Math.min(maxBalls, mAnimatingBalls.getCapacity());
+    }
+
+    /**
+     * Find collisions by solving for the earliest time of impact within each
+     * step, advancing every ball to it, resolving that impact and repeating
+     * (up to {@link #MAX_TOI_ITERATIONS} times), rather than moving the whole
+     * step at once and pushing overlapping balls apart afterward. Fast balls
+     * can't tunnel through each other, so larger steps (see
+     * {@link #setFixedStepRate}) remain stable. Collisions are always resolved
+     * on the calling thread in this mode.
+     */
+    public void setContinuousCollisions(boolean continuousCollisions) {
+        if (continuousCollisions != mContinuousCollisions) {
+            mSweep.reset();
+        }
+        mContinuousCollisions = continuousCollisions;
+    }
+
+    /**
+     * Spread each physics step across {@code threads} threads (including the
+     * caller). Integration is split into chunks of balls, and collisions are
+     * found with the grid broadphase and resolved strip by strip; see
+     * {@link StripPartition}. For a given seed the results are the same
+     * regardless of the thread count or scheduling, though they differ from
+     * the single threaded path since pairs are resolved in a different
+     * order.
+     * <p>
+     * Each step hands work to the other threads and waits for them, so more
+     * threads than free cores only slows it down; see ParallelStepBenchmark
+     * in the bench module.
+     * <p>
+     * Pass 1 to go back to stepping on the calling thread alone (which also
+     * stops the worker threads).
+     */
+    public void setThreadCount(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads=" + threads);
+        }
+        if (mWorkers != null) {
+            mWorkers.shutdown();
+            mWorkers = null;
+        }
+        if (threads > 1) {
+            mWorkers = new WorkerPool(threads - 1);
+        }
+    }
+
+    /**
+     * Charge clock handling and each physics phase (integrate, broadphase,
+     * narrowphase) to {@code profiler}, along with ball and collision pair
+     * counts. The caller owns the frame boundaries ({@link
+     * FrameProfiler#endFrame}). Pass null to stop profiling.
+     */
+    public void setProfiler(FrameProfiler profiler) {
+        mProfiler = profiler;
+    }
+
+    public BallStore getClockBalls() {
+        return mClockBalls;
+    }
+
+    public BallStore getAnimatingBalls() {
+        return mAnimatingBalls;
+    }
+
+    public float getInterpolation() {
+        return mInterpolation;
+    }
+
+    public int getClockVersion() {
+        return mClockVersion;
+    }
+
+    public float getBallRadius() {
+        return mBallRadius;
+    }
+
+    /**
+     * Bytes that {@link #writeState} will take as things stand.
+     */
+    int getStateSize() {
+        return STATE_HEADER_BYTES + BallStore.getStateSize(mAnimatingBalls.size()) +
+                CLOCK_BALL_COUNT;
+    }
+
+    /**
+     * Write everything needed to pick up exactly where we are: the random
+     * number generator, surface size, what the clock shows, and every
+     * animating ball. Settings (broadphase, step rate and so on) are not
+     * included. See {@link StateFile}.
+     */
+    void writeState(ByteBuffer out) {
+        out.putLong(mCountdownTo);
+        out.putLong(mRandom.getState());
+        out.putInt(mCanvasWidth);
+        out.putInt(mCanvasHeight);
+
+        CountdownClock countdown = mLastCountdown;
+        out.putInt(countdown.days);
+        out.putInt(countdown.hours);
+        out.putInt(countdown.minutes);
+        out.putInt(countdown.seconds);
+        DigitSet[] digitSets = { mDayDigits, mHourDigits, mMinuteDigits, mSecondDigits };
+        for (DigitSet digitSet : digitSets) {
+            out.putInt(digitSet.shown[0]);
+            out.putInt(digitSet.shown[1]);
+        }
+
+        out.putInt(mAnimatingBalls.size());
+        mAnimatingBalls.writeState(out);
+        out.put(mClockBalls.color, 0, CLOCK_BALL_COUNT);
+    }
+
+    /**
+     * Replace our state with one written by {@link #writeState}. The state is
+     * checked before anything is changed, so if this throws the simulation
+     * carries on as it was.
+     * <p>
+     * The first update after a restore draws the balls where they were and
+     * starts them moving from there, as after an idle stretch. If the clock
+     * has ticked since the state was saved, the digits change on that update
+     * as usual.
+     *
+     * @throws IOException if the state is for a different countdown, or
+     *             doesn't fit this simulation.
+     */
+    void readState(ByteBuffer in) throws IOException {
+        if (in.remaining() < STATE_HEADER_BYTES) {
+            throw new IOException("Truncated simulation state");
+        }
+        if (in.getLong() != mCountdownTo) {
+            throw new IOException("Saved state counts down to a different time");
+        }
+        long randomState = in.getLong();
+        int width = in.getInt();
+        int height = in.getInt();
+
+        CountdownClock countdown = mCurrentCountdown;
+        countdown.days = in.getInt();
+        countdown.hours = in.getInt();
+        countdown.minutes = in.getInt();
+        countdown.seconds = in.getInt();
+        DigitSet[] digitSets = { mDayDigits, mHourDigits, mMinuteDigits, mSecondDigits };
+        int[] shown = new int[digitSets.length * 2];
+        for (int i = 0; i < shown.length; i++) {
+            shown[i] = in.getInt();
+            if (shown[i] < -1 || shown[i] > 9) {
+                throw new IOException("Bad digit in saved state: " + shown[i]);
+            }
+        }
+
+        int count = in.getInt();
+        if (width < 0 || height < 0 || count < 0 ||
+                count > mAnimatingBalls.getCapacity()) {
+            throw new IOException("Saved state doesn't fit: " + width + "x" + height + ", " +
+                    count + " balls");
+        }
+        if (in.remaining() < BallStore.getStateSize(count) + CLOCK_BALL_COUNT) {
+            throw new IOException("Truncated simulation state");
+        }
+
+        mRandom.setState(randomState);
+        setSurfaceSize(width, height);
+        mLastCountdown.setTimeLeft(countdown);
+        for (int i = 0; i < digitSets.length; i++) {
+            digitSets[i].shown[0] = shown[i * 2];
+            digitSets[i].shown[1] = shown[i * 2 + 1];
+        }
+        mAnimatingBalls.readState(in, count);
+        in.get(mClockBalls.color, 0, CLOCK_BALL_COUNT);
+
+        mSweep.reset();
+        mPairsValid = false;
+        mLastUpdate = 0;
+        mWasAnimating = false;
+        mAccumulatedNanos = 0;
+        mInterpolation = 1f;
+        mClockVersion++;
+    }
+
+    private float randomFloatWithinRange(float min, float max) {
+        return (mRandom.nextFloat() * (max - min)) + min;
+    }
+
+    public void spawnGlyph(float x, float y) {
+        if (mAnimatingBalls.size() >= mSpawnLimit) {
+            return;
+        }
+
+        Glyph glyph = NumberFont.sFont[mRandom.nextInt(NumberFont.sFont.length)];
+
+        float ballDiameter = mBallRadius * 2;
+
+        float startX = x - ((ballDiameter + mBallSpacing) * 2f);
+        float curX = startX;
+        float curY = y - ((ballDiameter + mBallSpacing) * 3.5f);
+
+        for (int posY = 0; posY < glyph.getHeight(); posY++) {
+            for (int posX = 0; posX < glyph.getWidth(); posX++) {
+                if (glyph.isLit(posX, posY)) {
+                    float dx = randomFloatWithinRange(mBallMinDeltaX, mBallMaxDeltaX);
+                    float dy = randomFloatWithinRange(mBallMinDeltaY, mBallMaxDeltaY);
+
+                    byte color = BallStore.COLOR_GRAY;
+                    switch (mRandom.nextInt(4)) {
+                        case 0: color = mMinuteDigits.litColor; break;
+                        case 1: color = mSecondDigits.litColor; break;
+                        case 2: color = mHourDigits.litColor; break;
+                        case 3: color = mDayDigits.litColor; break;
+                    }
+
+                    int ball = mAnimatingBalls.add(curX, curY, mBallRadius, color);
+                    if (ball >= 0) {
+                        mAnimatingBalls.dx[ball] = dx;
+                        mAnimatingBalls.dy[ball] = dy;
+                    }
+                }
+                curX += ballDiameter + mBallSpacing;
+            }
+            curY += ballDiameter + mBallSpacing;
+            curX = startX;
+        }
+    }
+
+    /**
+     * Compute the pixel dimensions of some of our objects to ensure an ideal
+     * fit even on very large displays like tablets.
+     */
+    private void computeBallRadiusAndSizings() {
+        /*
+         * This math is likely impossible to read but it's the result of a
+         * formula I worked out trying to arrive at the same values I was using
+         * for testing on my Nexus One when adding the dynamic ball radius
+         * sizing. These are essentially those "golden ratios" that were tweaked
+         * by hand initially. The target value for mBallRadius on my N1 is 7.5px
+         * (5dp), which the below formula hits.
+         */
+        mBallRadius = (float)((mCanvasWidth * 0.96f) /
+                (16 * NumberFont.CONSTANT_WIDTH + 4.8 * (NumberFont.CONSTANT_WIDTH - 1) + 24));
+        mBallSpacing = mBallRadius * BALL_SPACING_RATIO;
+        mDigitSpacing = mBallRadius * DIGIT_SPACING_RATIO;
+        mBallMinDeltaX = mBallRadius * BALL_MIN_DELTA_X_RATIO;
+        mBallMaxDeltaX = mBallRadius * BALL_MAX_DELTA_X_RATIO;
+        mBallMinDeltaY = mBallRadius * BALL_MIN_DELTA_Y_RATIO;
+        mBallMaxDeltaY = mBallRadius * BALL_MAX_DELTA_Y_RATIO;
+        mPhysXAccel = mBallRadius * PHYS_X_ACCEL_RATIO;
+        mPhysYAccel = mBallRadius * PHYS_Y_ACCEL_RATIO;
+        mPhysMinYAccelAtBottom = mBallRadius * PHYS_MIN_Y_ACCEL_AT_BOTTOM_RATIO;
+    }
+
+    /**
+     * Lay the clock balls out for the current surface size. Only coordinates
+     * and radii are rewritten; each ball keeps its index and color, so a
+     * resize neither allocates nor re-lights the clock.
+     */
+    private void positionClock() {
+        /* Initialize the positions of the static clock balls. */
+        float digitWidth = (mBallRadius * 2 * NumberFont.CONSTANT_WIDTH) +
+        (mBallSpacing * (NumberFont.CONSTANT_WIDTH - 1));
+        float digitHeight = (mBallRadius * 2 * NumberFont.CONSTANT_HEIGHT) +
+        (mBallSpacing * (NumberFont.CONSTANT_HEIGHT - 1));
+
+        float clockWidth = (digitWidth * 8) + (mDigitSpacing * 10);
+        float clockHeight = digitHeight;
+
+        float x = (mCanvasWidth - clockWidth) / 2f;
+        float y = (mCanvasHeight - clockHeight) / 2f;
+
+        int ball = 0;
+        ball = positionClockDigit(ball, mDayDigits.balls[0], x, y); x += digitWidth + mDigitSpacing;
+        ball = positionClockDigit(ball, mDayDigits.balls[1], x, y); x += digitWidth + mDigitSpacing;
+        ball = positionClockColon(ball, x, y); x += mDigitSpacing;
+        ball = positionClockDigit(ball, mHourDigits.balls[0], x, y); x += digitWidth + mDigitSpacing;
+        ball = positionClockDigit(ball, mHourDigits.balls[1], x, y); x += digitWidth + mDigitSpacing;
+        ball = positionClockColon(ball, x, y); x += mDigitSpacing;
+        ball = positionClockDigit(ball, mMinuteDigits.balls[0], x, y); x += digitWidth + mDigitSpacing;
+        ball = positionClockDigit(ball, mMinuteDigits.balls[1], x, y); x += digitWidth + mDigitSpacing;
+        ball = positionClockColon(ball, x, y); x += mDigitSpacing;
+        ball = positionClockDigit(ball, mSecondDigits.balls[0], x, y); x += digitWidth + mDigitSpacing;
+        ball = positionClockDigit(ball, mSecondDigits.balls[1], x, y); x += digitWidth + mDigitSpacing;
+
+        mClockVersion++;
+    }
+
+    public void update(long nowMillis, long nowNanos) {
+        beginPhase();
+        handleClock(nowMillis);
+        endPhase(FrameProfiler.PHASE_CLOCK);
+
+        /*
+         * Balls appearing after an idle stretch start moving from this frame
+         * rather than being advanced by however long we were idle.
+         */
+        if (!mAnimatingBalls.isEmpty() && mLastUpdate != 0 && mWasAnimating) {
+            long frameNanos = nowNanos - mLastUpdate;
+            if (mStepNanos > 0) {
+                stepFixed(frameNanos);
+            } else if (frameNanos > 0) {
+                mElapsed = frameNanos / 1000000000.0;
+                mVelocityScale = 1f;
+                mInterpolation = 1f;
+                updatePhysics();
+            }
+        } else {
+            mAccumulatedNanos = 0;
+            mInterpolation = 1f;
+        }
+
+        mLastUpdate = nowNanos;
+        mWasAnimating = isAnimating();
+
+        if (mProfiler != null) {
+            mProfiler.addCount(FrameProfiler.COUNT_BALLS, mAnimatingBalls.size());
+        }
+    }
+
+    private void beginPhase() {
+        if (mProfiler != null) {
+            mPhaseStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Charge the time since the last {@link #beginPhase} or endPhase to
+     * {@code phase}, and start timing the next one.
+     */
+    private void endPhase(int phase) {
+        if (mProfiler != null) {
+            mPhaseStart = mProfiler.add(phase, mPhaseStart);
+        }
+    }
+
+    /**
+     * Advance the fixed step integrator by however many whole steps fit in
+     * the time accumulated so far, leaving the remainder for the next frame.
+     */
+    private void stepFixed(long frameNanos) {
+        long stepNanos = mStepNanos;
+        mAccumulatedNanos += Math.min(frameNanos, stepNanos * MAX_STEPS_PER_FRAME);
+
+        while (mAccumulatedNanos >= stepNanos && !mAnimatingBalls.isEmpty()) {
+            step();
+            mAccumulatedNanos -= stepNanos;
+        }
+
+        mInterpolation = (float)mAccumulatedNanos / stepNanos;
+    }
+
+    /**
+     * True while any animating ball is awake.
+     */
+    public boolean isAnimating() {
+        return mAnimatingBalls.countAwake() > 0;
+    }
+
+    public long getMillisUntilClockChange(long nowMillis) {
+        if (nowMillis >= mCountdownTo) {
+            return -1;
+        }
+        /* The display ticks each time the time left crosses a whole second. */
+        long untilTick = (mCountdownTo - nowMillis) % 1000;
+        return untilTick == 0 ? 1000 : untilTick;
+    }
+
+    /**
+     * Advance the animating balls by exactly one fixed physics step,
+     * regardless of how much time has actually passed. If fixed stepping is
+     * disabled, the step is one reference frame long.
+     */
+    public void step() {
+        long stepNanos = mStepNanos > 0 ? mStepNanos : 1000000000L / REFERENCE_STEP_RATE;
+        mElapsed = stepNanos / 1000000000.0;
+        mVelocityScale = (float)(mElapsed * REFERENCE_STEP_RATE);
+
+        mAnimatingBalls.savePositions();
+        updatePhysics();
+    }
+
+    /**
+     * Position the balls of one digit, starting at clock ball {@code ball}.
+     *
+     * @return Index of the next clock ball.
+     */
+    private int positionClockDigit(int ball, int[] digit, float x, float y) {
+        /*
+         * Adjust for the fact that drawCircle draws at the center, but our
+         * API suggests that we draw at the upper-left bounding box.
+         */
+        x += mBallRadius;
+        y += mBallRadius;
+
+        float curX = x;
+        for (int posY = 0; posY < NumberFont.CONSTANT_HEIGHT; posY++) {
+            for (int posX = 0; posX < NumberFont.CONSTANT_WIDTH; posX++) {
+                digit[NumberFont.bit(posX, posY)] = ball;
+                placeClockBall(ball++, curX, y);
+                curX += (mBallRadius * 2) + mBallSpacing;
+            }
+            y += (mBallRadius * 2) + mBallSpacing;
+            curX = x;
+        }
+        return ball;
+    }
+
+    private int positionClockColon(int ball, float x, float y) {
+        float colonTopY = y + (mBallRadius * 5f) + (mBallSpacing * 2f);
+        float colonBottomY = colonTopY + (mBallRadius * 4f) + (mBallSpacing * 2f);
+
+        placeClockBall(ball++, x, colonTopY);
+        placeClockBall(ball++, x, colonBottomY);
+        return ball;
+    }
+
+    private void placeClockBall(int ball, float x, float y) {
+        BallStore clock = mClockBalls;
+        clock.x[ball] = x;
+        clock.y[ball] = y;
+        clock.prevX[ball] = x;
+        clock.prevY[ball] = y;
+        clock.radius[ball] = mBallRadius;
+    }
+
+    private void handleClock(long now) {
+        long timeLeft;
+        if (now >= mCountdownTo) {
+            /*
+             * At first I thought something cool should happen when I/O begins.
+             * But no, you should put your phone away and enjoy the event :)
+             */
+            timeLeft = 0;
+        } else {
+            timeLeft = mCountdownTo - now;
+        }
+
+        mCurrentCountdown.setTimeLeft(timeLeft);
+
+        handleDigitChange(mDayDigits, mLastCountdown.days, mCurrentCountdown.days);
+        handleDigitChange(mHourDigits, mLastCountdown.hours, mCurrentCountdown.hours);
+        handleDigitChange(mMinuteDigits, mLastCountdown.minutes, mCurrentCountdown.minutes);
+        handleDigitChange(mSecondDigits, mLastCountdown.seconds, mCurrentCountdown.seconds);
+
+        mLastCountdown.setTimeLeft(mCurrentCountdown);
+    }
+
+    private void handleDigitChange(DigitSet digitSet, int lastCount, int newCount) {
+        if (lastCount == newCount) {
+            return;
+        }
+        int numDigits = digitSet.getNumDigits();
+        int value = newCount;
+        BallStore clock = mClockBalls;
+        while (numDigits-- > 0) {
+            int digitValue = value % 10;
+            value /= 10;
+
+            int shown = digitSet.shown[numDigits];
+            if (shown == digitValue) {
+                continue;
+            }
+            digitSet.shown[numDigits] = digitValue;
+            mClockVersion++;
+
+            /*
+             * Only visit the cells that actually change. Bits go column by
+             * column, the same order the balls have always been released in.
+             */
+            int[] digitBalls = digitSet.balls[numDigits];
+            int turnedOff;
+            int turnedOn;
+            if (shown < 0) {
+                turnedOff = 0;
+                turnedOn = NumberFont.sFont[digitValue].getMask();
+            } else {
+                turnedOff = NumberFont.getTurnedOff(shown, digitValue);
+                turnedOn = NumberFont.getTurnedOn(shown, digitValue);
+            }
+
+            int changed = turnedOff | turnedOn;
+            while (changed != 0) {
+                int bit = Integer.numberOfTrailingZeros(changed);
+                changed &= changed - 1;
+                int ball = digitBalls[bit];
+
+                if ((turnedOff & (1 << bit)) != 0) {
+                    int anim = mAnimatingBalls.add(clock.x[ball], clock.y[ball],
+                            clock.radius[ball], clock.color[ball]);
+                    if (anim >= 0) {
+                        mAnimatingBalls.dx[anim] = randomFloatWithinRange(mBallMinDeltaX, mBallMaxDeltaX);
+                        mAnimatingBalls.dy[anim] = randomFloatWithinRange(mBallMinDeltaY, mBallMaxDeltaY);
+                    }
+                    clock.color[ball] = BallStore.COLOR_GRAY;
+                } else {
+                    clock.color[ball] = digitSet.litColor;
+                }
+            }
+        }
+    }
+
+    private void updatePhysics() {
+        IntegrateKernel.Step step = mIntegrateStep;
+        step.horizontalForce = (float)(mPhysXAccel * mGravityX * mElapsed);
+        step.verticalForce = (float)(mPhysYAccel * mGravityY * mElapsed);
+        step.velocityScale = mVelocityScale;
+        step.height = mCanvasHeight;
+        step.minBounceSpeed = mPhysMinYAccelAtBottom;
+        step.bounceFactor = PHYS_Y_FRICTION_SORT_OF;
+        step.sleepSpeed = mBallRadius * SLEEP_SPEED_RATIO;
+        step.move = !mContinuousCollisions;
+
+        beginPhase();
+        int N = mAnimatingBalls.size();
+        if (mWorkers != null) {
+            mWorkers.execute(mIntegrateTask, (N + INTEGRATE_CHUNK_SIZE - 1) / INTEGRATE_CHUNK_SIZE);
+        } else {
+            integrate(0, N);
+        }
+        prune();
+        endPhase(FrameProfiler.PHASE_INTEGRATE);
+
+        if (mContinuousCollisions) {
+            mPairsValid = false;
+            resolveCollisionsContinuous();
+        } else if (mWorkers != null) {
+            mPairsValid = false;
+            resolveCollisionsInParallel();
+        } else if (mBroadphase == BROADPHASE_GRID) {
+            resolveCollisionsWithGrid();
+        } else if (mBroadphase == BROADPHASE_SWEEP_AND_PRUNE) {
+            resolveCollisionsWithSweep();
+        } else {
+            mPairsValid = false;
+            resolveCollisionsAllPairs();
+        }
+
+        sleepResting();
+    }
+
+    /**
+     * Apply forces to and move the balls in [from, to). Each ball is
+     * independent of the others so ranges can be integrated concurrently.
+     * With continuous collisions the balls are left where they are, to be
+     * moved by {@link #resolveCollisionsContinuous}.
+     */
+    private void integrate(int from, int to) {
+        mIntegrateKernel.integrate(mAnimatingBalls, from, to, mIntegrateStep);
+    }
+
+    /**
+     * Count the steps each awake ball has spent (nearly) standing still, and
+     * put those that have done so for long enough to sleep.
+     */
+    private void sleepResting() {
+        IntegrateKernel.Step step = mIntegrateStep;
+        float stillX = (step.sleepSpeed + Math.abs(step.horizontalForce)) * mVelocityScale;
+        float stillY = (step.sleepSpeed + Math.abs(step.verticalForce)) * mVelocityScale;
+        int sleepSteps = (int)Math.max(1, Math.min(Byte.MAX_VALUE,
+                Math.round(SLEEP_SECONDS / mElapsed)));
+
+        BallStore balls = mAnimatingBalls;
+        float[] xs = balls.x;
+        float[] ys = balls.y;
+        float[] prevXs = balls.prevX;
+        float[] prevYs = balls.prevY;
+        boolean[] asleep = balls.asleep;
+        byte[] restCount = balls.restCount;
+        float[] dys = balls.dy;
+        float minBounceSpeed = step.minBounceSpeed;
+
+        int N = balls.size();
+        for (int i = 0; i < N; i++) {
+            if (asleep[i]) {
+                continue;
+            }
+            if (Math.abs(xs[i] - prevXs[i]) < stillX && Math.abs(ys[i] - prevYs[i]) < stillY) {
+                if (++restCount[i] >= sleepSteps) {
+                    asleep[i] = true;
+                    balls.dx[i] = 0;
+                    balls.dy[i] = 0;
+                }
+            } else if (Math.abs(xs[i] - prevXs[i]) >= stillX ||
+                    Math.abs(dys[i]) > minBounceSpeed) {
+                /*
+                 * Moving again. A ball only hopping in place off the floor
+                 * kick keeps its count (without adding to it), so that the
+                 * kernel leaves it out of the next kick.
+                 */
+                restCount[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Drop balls that have left the surface horizontally. Survivors are
+     * compacted toward the front (preserving their order), so pruning any
+     * number of balls costs a single pass. The sweep-and-prune order and any
+     * collision pairs kept for reuse are remapped to match, so they survive
+     * without being rebuilt.
+     */
+    private void prune() {
+        BallStore balls = mAnimatingBalls;
+        float[] xs = balls.x;
+
+        int N = balls.size();
+        boolean remapPairs = mPairsValid && mBroadphaseInterval > 1;
+        boolean remapSweep = mBroadphase == BROADPHASE_SWEEP_AND_PRUNE || mContinuousCollisions;
+        boolean remap = remapSweep || remapPairs;
+        if (remap && mPruneRemap.length < N) {
+            mPruneRemap = new int[balls.getCapacity()];
+            BufferAllocationCounter.increment();
+        }
+        int[] newIndex = mPruneRemap;
+
+        int live = 0;
+        for (int i = 0; i < N; i++) {
+            float posx = xs[i];
+            if (posx >= 0 && posx <= mCanvasWidth) {
+                if (live != i) {
+                    balls.copy(i, live);
+                }
+                if (remap) {
+                    newIndex[i] = live;
+                }
+                live++;
+            } else if (remap) {
+                newIndex[i] = -1;
+            }
+        }
+        balls.truncate(live);
+
+        if (live != N) {
+            if (remapPairs) {
+                mCollisionPairs.remap(newIndex);
+            } else {
+                mPairsValid = false;
+            }
+            if (remapSweep) {
+                mSweep.remap(newIndex, N);
+            }
+        }
+    }
+
+    private void resolveCollisionsAllPairs() {
+        /* Check for a hit (XXX: this algorithm is n^2). */
+        BallStore balls = mAnimatingBalls;
+        boolean[] asleep = balls.asleep;
+        int N = balls.size();
+        for (int i = 0; i < N; i++) {
+            for (int j = i + 1; j < N; j++) {
+                if ((!asleep[i] || !asleep[j]) && balls.colliding(i, j, mVelocityScale)) {
+                    balls.resolveCollision(i, j);
+                }
+            }
+        }
+        endPhase(FrameProfiler.PHASE_NARROWPHASE);
+
+        if (mProfiler != null) {
+            mProfiler.addCount(FrameProfiler.COUNT_COLLISION_PAIRS, (long)N * (N - 1) / 2);
+        }
+    }
+
+    private void resolveCollisionsWithGrid() {
+        /*
+         * Note that BallStore#colliding also considers the velocity of each ball,
+         * so a fast ball may be predicted to hit something further than one
+         * cell away. We only miss that prediction; once the balls actually
+         * overlap they share neighboring cells and the hit is resolved then.
+         */
+        if (!reusePairs(BROADPHASE_GRID)) {
+            findGridPairs(mBallRadius * GRID_CELL_SIZE_RATIO);
+        }
+        endPhase(FrameProfiler.PHASE_BROADPHASE);
+
+        BallStore balls = mAnimatingBalls;
+        int numPairs = mCollisionPairs.size();
+        for (int k = 0; k < numPairs; k++) {
+            int ball = mCollisionPairs.getFirst(k);
+            int otherBall = mCollisionPairs.getSecond(k);
+            if (balls.colliding(ball, otherBall, mVelocityScale)) {
+                balls.resolveCollision(ball, otherBall);
+            }
+        }
+        endPhase(FrameProfiler.PHASE_NARROWPHASE);
+    }
+
+    private void resolveCollisionsWithSweep() {
+        if (!reusePairs(BROADPHASE_SWEEP_AND_PRUNE)) {
+            mCollisionPairs.clear();
+            mSweep.findPairs(mAnimatingBalls, mCollisionPairs, 0f);
+        }
+        endPhase(FrameProfiler.PHASE_BROADPHASE);
+
+        BallStore balls = mAnimatingBalls;
+        int numPairs = mCollisionPairs.size();
+        for (int k = 0; k < numPairs; k++) {
+            int ball = mCollisionPairs.getFirst(k);
+            int otherBall = mCollisionPairs.getSecond(k);
+            if (balls.colliding(ball, otherBall, mVelocityScale)) {
+                balls.resolveCollision(ball, otherBall);
+            }
+        }
+        endPhase(FrameProfiler.PHASE_NARROWPHASE);
+
+        if (mProfiler != null) {
+            mProfiler.addCount(FrameProfiler.COUNT_COLLISION_PAIRS, numPairs);
+        }
+    }
+
+    /**
+     * Decide whether this step can skip the broadphase and test last step's
+     * pairs again (see {@link #setBroadphaseInterval}). If not, the caller
+     * must refill {@link #mCollisionPairs}, which is then assumed valid for
+     * the following steps.
+     */
+    private boolean reusePairs(int broadphase) {
+        if (mPairsValid && mPairsBroadphase == broadphase &&
+                ++mStepsSinceBroadphase < mBroadphaseInterval) {
+            return true;
+        }
+        mStepsSinceBroadphase = 0;
+        mPairsBroadphase = broadphase;
+        mPairsValid = true;
+        return false;
+    }
+
+    private void findGridPairs(float cellSize) {
+        BallStore balls = mAnimatingBalls;
+        float[] xs = balls.x;
+        float[] ys = balls.y;
+
+        int N = balls.size();
+        mGrid.begin(cellSize, N);
+        for (int i = 0; i < N; i++) {
+            mGrid.insert(i, xs[i], ys[i]);
+        }
+
+        mCollisionPairs.clear();
+        mGrid.findPairs(mCollisionPairs, balls.asleep);
+
+        if (mProfiler != null) {
+            mProfiler.addCount(FrameProfiler.COUNT_COLLISION_PAIRS, mCollisionPairs.size());
+        }
+    }
+
+    /**
+     * Move the balls through the step one impact at a time. Candidate pairs
+     * are those whose extents, swept over the step, overlap. A ball deflected
+     * partway through the step can meet one outside its original sweep; that
+     * is caught as an overlap at the end of the step, as without CCD.
+     */
+    private void resolveCollisionsContinuous() {
+        BallStore balls = mAnimatingBalls;
+        float scale = mVelocityScale;
+
+        PairBuffer pairs = mCollisionPairs;
+        pairs.clear();
+        mSweep.findPairs(balls, pairs, scale);
+        endPhase(FrameProfiler.PHASE_BROADPHASE);
+
+        if (mProfiler != null) {
+            mProfiler.addCount(FrameProfiler.COUNT_COLLISION_PAIRS, pairs.size());
+        }
+
+        int numPairs = pairs.size();
+        if (mImpactTimes.length < numPairs) {
+            mImpactTimes = new float[Math.max(numPairs, mImpactTimes.length * 2)];
+            BufferAllocationCounter.increment();
+        }
+
+        /*
+         * Impact times are kept relative to the start of the step. Only the
+         * pair that hits changes velocity, so after each impact only pairs
+         * sharing a ball with it need to be solved again.
+         */
+        float[] times = mImpactTimes;
+        for (int k = 0; k < numPairs; k++) {
+            times[k] = timeOfImpact(balls, pairs.getFirst(k), pairs.getSecond(k), scale);
+        }
+
+        float now = 0f;
+        for (int iteration = 0; iteration < MAX_TOI_ITERATIONS; iteration++) {
+            float earliest = 1f;
+            int hit = -1;
+            for (int k = 0; k < numPairs; k++) {
+                float t = times[k];
+                if (t >= now && t < earliest) {
+                    earliest = t;
+                    hit = k;
+                }
+            }
+            if (hit < 0) {
+                break;
+            }
+
+            advance(balls, (earliest - now) * scale);
+            now = earliest;
+            int a = pairs.getFirst(hit);
+            int b = pairs.getSecond(hit);
+            balls.resolveImpact(a, b);
+
+            for (int k = 0; k < numPairs; k++) {
+                int first = pairs.getFirst(k);
+                int second = pairs.getSecond(k);
+                if (first == a || first == b || second == a || second == b) {
+                    float t = timeOfImpact(balls, first, second, scale);
+                    times[k] = t >= 0 ? now + t : -1;
+                }
+            }
+        }
+        advance(balls, (1f - now) * scale);
+
+        /* Resting contact, and whatever the iteration cap cut short. */
+        for (int k = 0; k < numPairs; k++) {
+            int ball = pairs.getFirst(k);
+            int otherBall = pairs.getSecond(k);
+            float dpx = balls.x[otherBall] - balls.x[ball];
+            float dpy = balls.y[otherBall] - balls.y[ball];
+            float r = balls.radius[ball] + balls.radius[otherBall];
+            if (dpx * dpx + dpy * dpy < r * r) {
+                balls.resolveCollision(ball, otherBall);
+            }
+        }
+        endPhase(FrameProfiler.PHASE_NARROWPHASE);
+    }
+
+    /**
+     * Fraction of the step (from 0) at which balls {@code a} and {@code b}
+     * first touch if both keep moving at their current velocities, or -1 if
+     * they don't approach each other or already overlap.
+     */
+    private static float timeOfImpact(BallStore balls, int a, int b, float scale) {
+        float dpx = balls.x[b] - balls.x[a];
+        float dpy = balls.y[b] - balls.y[a];
+        float dvx = (balls.dx[b] - balls.dx[a]) * scale;
+        float dvy = (balls.dy[b] - balls.dy[a]) * scale;
+        float r = balls.radius[a] + balls.radius[b];
+
+        float c = dpx * dpx + dpy * dpy - r * r;
+        float bb = dpx * dvx + dpy * dvy;
+        if (c < 0 || bb >= 0) {
+            return -1;
+        }
+        float aa = dvx * dvx + dvy * dvy;
+        float discriminant = bb * bb - aa * c;
+        if (discriminant < 0) {
+            return -1;
+        }
+        return (float)((-bb - Math.sqrt(discriminant)) / aa);
+    }
+
+    private static void advance(BallStore balls, float scale) {
+        if (scale <= 0) {
+            return;
+        }
+        float[] xs = balls.x;
+        float[] ys = balls.y;
+        float[] dxs = balls.dx;
+        float[] dys = balls.dy;
+        int N = balls.size();
+        for (int i = 0; i < N; i++) {
+            xs[i] += dxs[i] * scale;
+            ys[i] += dys[i] * scale;
+        }
+    }
+
+    private void resolveCollisionsInParallel() {
+        findGridPairs(mBallRadius * GRID_CELL_SIZE_RATIO);
+
+        /*
+         * Grid pairs are never more than two cells apart, so strips two cells
+         * wide keep every pair within two adjacent strips.
+         */
+        float stripWidth = mBallRadius * GRID_CELL_SIZE_RATIO * 2;
+        mStrips.partition(mAnimatingBalls, mCollisionPairs, stripWidth, mCanvasWidth);
+        endPhase(FrameProfiler.PHASE_BROADPHASE);
+
+        int stripCount = mStrips.getStripCount();
+        for (int phase = 0; phase < 2; phase++) {
+            mResolvePhase = phase;
+            mWorkers.execute(mResolveTask, (stripCount - phase + 1) / 2);
+        }
+        endPhase(FrameProfiler.PHASE_NARROWPHASE);
+    }
+
+    private void resolveStrip(int strip) {
+        BallStore balls = mAnimatingBalls;
+        PairBuffer pairs = mCollisionPairs;
+        StripPartition strips = mStrips;
+
+        int end = strips.getEnd(strip);
+        for (int k = strips.getStart(strip); k < end; k++) {
+            int pair = strips.getPair(k);
+            int ball = pairs.getFirst(pair);
+            int otherBall = pairs.getSecond(pair);
+            if (balls.colliding(ball, otherBall, mVelocityScale)) {
+                balls.resolveCollision(ball, otherBall);
+            }
+        }
+    }
+
+    private static class CountdownClock {
+        public int days;
+        public int hours;
+        public int minutes;
+        public int seconds;
+
+        public CountdownClock() {
+            reset();
+        }
+
+        public void setTimeLeft(long timeLeft) {
+            timeLeft /= 1000;
+            seconds = (int)(timeLeft % 60);
+            timeLeft /= 60;
+            minutes = (int)(timeLeft % 60);
+            timeLeft /= 60;
+            hours = (int)(timeLeft % 24);
+            timeLeft /= 24;
+            days = (int)timeLeft;
+        }
+
+        public void setTimeLeft(CountdownClock source) {
+            days = source.days;
+            hours = source.hours;
+            minutes = source.minutes;
+            seconds = source.seconds;
+        }
+
+        public void reset() {
+            days = -1;
+            hours = -1;
+            minutes = -1;
+            seconds = -1;
+        }
+    }
+
+    private static class DigitSet {
+        /**
+         * Clock ball index of each cell (indexed by {@link NumberFont#bit})
+         * for each digit in the set.
+         */
+        public final int[][] balls = new int[2][NumberFont.CELL_COUNT];
+
+        /**
+         * Digit value each position currently shows, or -1 if it's blank
+         * (all gray).
+         */
+        public final int[] shown = new int[] { -1, -1 };
+
+        /**
+         * Color to use when the ball is "lit" (not gray).
+         */
+        public final byte litColor;
+
+        public DigitSet(byte litColor) {
+            this.litColor = litColor;
+        }
+
+        public int getNumDigits() {
+            return balls.length;
+        }
+    }
+}
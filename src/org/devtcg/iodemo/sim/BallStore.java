@@ -0,0 +1,426 @@
+package org.devtcg.iodemo.sim;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Structure-of-arrays storage for balls. Rather than one heap object per ball
+ * we keep parallel primitive arrays indexed by ball, so the physics loop walks
+ * memory linearly and thousands of balls cost no per-object overhead.
+ * <p>
+ * The arrays are exposed directly so that hot loops can hoist them into
+ * locals. Only indices in [0, {@link #size()}) are meaningful.
+ * <p>
+ * The store doubles as the ball pool: its capacity is fixed at construction
+ * and slots freed by {@link #truncate} are reused by the next {@link #add}, so
+ * spawning and pruning balls never allocates.
+ */
+public class BallStore {
+    /*
+     * Color indices stored per ball. The renderer keeps a matching table of
+     * paints indexed by these values.
+     */
+    public static final byte COLOR_GRAY = 0;
+    public static final byte COLOR_PURPLE = 1;
+    public static final byte COLOR_BLUE = 2;
+    public static final byte COLOR_RED = 3;
+    public static final byte COLOR_GREEN = 4;
+    public static final int NUM_COLORS = 5;
+
+    /*
+     * A collision wakes a sleeping ball only if it changes the balls' speed
+     * by more than WAKE_SPEED_RATIO of their combined radii per reference
+     * step, or has to push each of them more than WAKE_PUSH_RATIO of their
+     * combined radii to separate them. Both are well above what a ball
+     * resting on another picks up from gravity in a step; the push allows
+     * for more since a pile settling under its own weight overlaps a little
+     * further with each ball stacked on top.
+     */
+    private static final float WAKE_SPEED_RATIO = 0.1f;
+    private static final float WAKE_PUSH_RATIO = 0.25f;
+
+    /* Seven float attributes and three byte-sized ones; see writeState. */
+    private static final int STATE_BYTES_PER_BALL = 7 * 4 + 3;
+
+    public final float[] x;
+    public final float[] y;
+    public final float[] dx;
+    public final float[] dy;
+    public final float[] radius;
+    public final byte[] color;
+
+    /**
+     * Position as of the previous physics step, for drawing interpolated
+     * positions when physics runs at a different rate than the display.
+     */
+    public final float[] prevX;
+    public final float[] prevY;
+
+    /**
+     * Balls that have come to rest and are skipped by the physics step until
+     * something hits them; see {@link #wake}.
+     */
+    public final boolean[] asleep;
+
+    /**
+     * Consecutive steps (as counted by the simulation) that each ball has
+     * looked settled for. Above 0 marks a candidate for sleep, which the
+     * floor kick leaves alone.
+     */
+    public final byte[] restCount;
+
+    private final int mCapacity;
+    private int mSize;
+
+    public BallStore(int capacity) {
+        mCapacity = capacity;
+        x = new float[capacity];
+        y = new float[capacity];
+        dx = new float[capacity];
+        dy = new float[capacity];
+        radius = new float[capacity];
+        color = new byte[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        asleep = new boolean[capacity];
+        restCount = new byte[capacity];
+        BufferAllocationCounter.increment();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public boolean isFull() {
+        return mSize == mCapacity;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Append a stationary ball.
+     *
+     * @return Index of the new ball, or -1 if the store is full (the ball is
+     *         simply dropped in that case).
+     */
+    public int add(float x, float y, float radius, byte color) {
+        if (mSize == mCapacity) {
+            return -1;
+        }
+        int index = mSize++;
+        this.x[index] = x;
+        this.y[index] = y;
+        this.dx[index] = 0f;
+        this.dy[index] = 0f;
+        this.radius[index] = radius;
+        this.color[index] = color;
+        this.prevX[index] = x;
+        this.prevY[index] = y;
+        this.asleep[index] = false;
+        this.restCount[index] = 0;
+        return index;
+    }
+
+    /**
+     * Copy every attribute of ball {@code from} over ball {@code to}. Used to
+     * compact the store in place while pruning.
+     */
+    public void copy(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        dx[to] = dx[from];
+        dy[to] = dy[from];
+        radius[to] = radius[from];
+        color[to] = color[from];
+        prevX[to] = prevX[from];
+        prevY[to] = prevY[from];
+        asleep[to] = asleep[from];
+        restCount[to] = restCount[from];
+    }
+
+    /**
+     * Replace the contents of this store with a copy of {@code source},
+     * which must not hold more balls than our capacity.
+     */
+    public void copyFrom(BallStore source) {
+        int N = source.mSize;
+        if (N > mCapacity) {
+            throw new IllegalArgumentException("source has " + N + " balls, capacity is " +
+                    mCapacity);
+        }
+        System.arraycopy(source.x, 0, x, 0, N);
+        System.arraycopy(source.y, 0, y, 0, N);
+        System.arraycopy(source.dx, 0, dx, 0, N);
+        System.arraycopy(source.dy, 0, dy, 0, N);
+        System.arraycopy(source.radius, 0, radius, 0, N);
+        System.arraycopy(source.color, 0, color, 0, N);
+        System.arraycopy(source.prevX, 0, prevX, 0, N);
+        System.arraycopy(source.prevY, 0, prevY, 0, N);
+        System.arraycopy(source.asleep, 0, asleep, 0, N);
+        System.arraycopy(source.restCount, 0, restCount, 0, N);
+        mSize = N;
+    }
+
+    /**
+     * Bytes that {@link #writeState} takes for {@code count} balls.
+     */
+    static int getStateSize(int count) {
+        return count * STATE_BYTES_PER_BALL;
+    }
+
+    /**
+     * Write every ball's attributes to {@code out}, an array at a time, in
+     * the buffer's byte order. The ball count is up to the caller.
+     */
+    void writeState(ByteBuffer out) {
+        int N = mSize;
+        putFloats(out, x, N);
+        putFloats(out, y, N);
+        putFloats(out, dx, N);
+        putFloats(out, dy, N);
+        putFloats(out, radius, N);
+        putFloats(out, prevX, N);
+        putFloats(out, prevY, N);
+        out.put(color, 0, N);
+        out.put(restCount, 0, N);
+        for (int i = 0; i < N; i++) {
+            out.put(asleep[i] ? (byte)1 : (byte)0);
+        }
+    }
+
+    /**
+     * Replace the contents of this store with {@code count} balls written by
+     * {@link #writeState}, which must fit within our capacity.
+     */
+    void readState(ByteBuffer in, int count) {
+        if (count > mCapacity) {
+            throw new IllegalArgumentException("count=" + count + ", capacity is " + mCapacity);
+        }
+        getFloats(in, x, count);
+        getFloats(in, y, count);
+        getFloats(in, dx, count);
+        getFloats(in, dy, count);
+        getFloats(in, radius, count);
+        getFloats(in, prevX, count);
+        getFloats(in, prevY, count);
+        in.get(color, 0, count);
+        in.get(restCount, 0, count);
+        for (int i = 0; i < count; i++) {
+            asleep[i] = in.get() != 0;
+        }
+        mSize = count;
+    }
+
+    private static void putFloats(ByteBuffer out, float[] values, int count) {
+        out.asFloatBuffer().put(values, 0, count);
+        out.position(out.position() + count * 4);
+    }
+
+    private static void getFloats(ByteBuffer in, float[] values, int count) {
+        in.asFloatBuffer().get(values, 0, count);
+        in.position(in.position() + count * 4);
+    }
+
+    public void wake(int index) {
+        asleep[index] = false;
+        restCount[index] = 0;
+    }
+
+    public void wakeAll() {
+        for (int i = 0; i < mSize; i++) {
+            asleep[i] = false;
+            restCount[i] = 0;
+        }
+    }
+
+    /**
+     * @return Number of balls that are not {@link #asleep}.
+     */
+    public int countAwake() {
+        int awake = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (!asleep[i]) {
+                awake++;
+            }
+        }
+        return awake;
+    }
+
+    /**
+     * Remember the current positions as the previous positions, ahead of a
+     * physics step.
+     */
+    public void savePositions() {
+        System.arraycopy(x, 0, prevX, 0, mSize);
+        System.arraycopy(y, 0, prevY, 0, mSize);
+    }
+
+    /**
+     * Drop every ball at or after {@code size}.
+     */
+    public void truncate(int size) {
+        mSize = size;
+    }
+
+    /**
+     * Somewhat sophisticated intersection test that takes into account
+     * object velocity to avoid missing detection when the objects would
+     * intersect at interpolated values between now and the next step.
+     *
+     * @param velocityScale Reference steps the next step covers, as
+     *            velocities are expressed per reference step.
+     */
+    public boolean colliding(int a, int b, float velocityScale) {
+        float dvx = (dx[b] - dx[a]) * velocityScale;
+        float dvy = (dy[b] - dy[a]) * velocityScale;
+        float dpx = x[b] - x[a];
+        float dpy = y[b] - y[a];
+        float r = radius[b] + radius[a];
+
+        /* Fail fast: check if they intersect now. */
+        float pp = dpx * dpx + dpy * dpy - r * r;
+        if (pp < 0) {
+            return true;
+        }
+
+        /* Fail fast: check if they are moving away from each other. */
+        float pv = dpx * dvx + dpy * dvy;
+        if (pv >= 0) {
+            return false;
+        }
+
+        float vv = dvx * dvx + dvy * dvy;
+
+        /*
+         * Check if the spheres can intersect within the step (this doesn't
+         * apply acceleration and is kind of broken for that reason).  Oh
+         * well, no one will notice :)
+         */
+        if ((pv + vv) <= 0 && (vv + 2 * pv + pp) >= 0) {
+            return false;
+        }
+
+        float D = pv * pv - pp * vv;
+        return D > 0;
+    }
+
+    /**
+     * Some vector maths to apply position and velocity changes after a
+     * collision has been detected. Two awake balls always bounce apart.
+     * Against a sleeping ball, contacts softer than WAKE_SPEED_RATIO and
+     * WAKE_PUSH_RATIO allow are treated as resting: they don't wake it, it
+     * stays put, and the awake ball does all of the moving and only stops
+     * heading into it, so balls can settle on top of a sleeping pile.
+     */
+    public void resolveCollision(int a, int b) {
+        float dpx = x[a] - x[b];
+        float dpy = y[a] - y[b];
+        double d = Math.sqrt(dpx * dpx + dpy * dpy);
+        if (d == 0) {
+            return;
+        }
+        float radii = radius[a] + radius[b];
+        float mtdx = (float)(dpx * ((radii - d) / d));
+        float mtdy = (float)(dpy * ((radii - d) / d));
+        double mtdlen = Math.sqrt(mtdx * mtdx + mtdy * mtdy);
+        float normmtdx;
+        float normmtdy;
+        if (mtdlen > 0) {
+            normmtdx = (float)(mtdx / mtdlen);
+            normmtdy = (float)(mtdy / mtdlen);
+        } else {
+            /* Exactly touching leaves no overlap to take a direction from. */
+            normmtdx = (float)(dpx / d);
+            normmtdy = (float)(dpy / d);
+        }
+        float ddx = dx[a] - dx[b];
+        float ddy = dy[a] - dy[b];
+        double dn = ddx * normmtdx + ddy * normmtdy;
+        float i = dn > 0f ? 0f : (float)-dn;
+
+        boolean hard = mtdlen * 0.5 > radii * WAKE_PUSH_RATIO || i > radii * WAKE_SPEED_RATIO;
+        boolean moveA = wakeIf(a, hard);
+        boolean moveB = wakeIf(b, hard);
+        if (moveA && moveB) {
+            x[a] += mtdx * 0.5f;
+            y[a] += mtdy * 0.5f;
+            x[b] -= mtdx * 0.5f;
+            y[b] -= mtdy * 0.5f;
+            dx[a] += normmtdx * i;
+            dy[a] += normmtdy * i;
+            dx[b] -= normmtdx * i;
+            dy[b] -= normmtdy * i;
+        } else if (moveA) {
+            /* Resting against b: just stop heading into it. */
+            x[a] += mtdx;
+            y[a] += mtdy;
+            dx[a] += normmtdx * i;
+            dy[a] += normmtdy * i;
+        } else if (moveB) {
+            x[b] -= mtdx;
+            y[b] -= mtdy;
+            dx[b] -= normmtdx * i;
+            dy[b] -= normmtdy * i;
+        }
+    }
+
+    /**
+     * Velocity-only response for two balls that are just touching, as found
+     * by a time of impact search. Unlike {@link #resolveCollision} the balls
+     * aren't pushed apart, since they don't overlap. Sleeping balls are
+     * woken as described there.
+     */
+    public void resolveImpact(int a, int b) {
+        float dpx = x[a] - x[b];
+        float dpy = y[a] - y[b];
+        double d = Math.sqrt(dpx * dpx + dpy * dpy);
+        if (d == 0) {
+            return;
+        }
+        float nx = (float)(dpx / d);
+        float ny = (float)(dpy / d);
+        float dn = (dx[a] - dx[b]) * nx + (dy[a] - dy[b]) * ny;
+        if (dn > 0f) {
+            return;
+        }
+        float i = -dn;
+
+        boolean hard = i > (radius[a] + radius[b]) * WAKE_SPEED_RATIO;
+        if (wakeIf(a, hard)) {
+            dx[a] += nx * i;
+            dy[a] += ny * i;
+        }
+        if (wakeIf(b, hard)) {
+            dx[b] -= nx * i;
+            dy[b] -= ny * i;
+        }
+    }
+
+    /**
+     * Wake ball {@code index} if it is asleep and {@code hard}. An awake
+     * ball keeps its count of resting steps; whether it is resting is judged
+     * by how far it actually moves.
+     *
+     * @return True if the ball is awake and should respond to the contact.
+     */
+    private boolean wakeIf(int index, boolean hard) {
+        if (asleep[index] && hard) {
+            wake(index);
+        }
+        return !asleep[index];
+    }
+
+    public String toString(int index) {
+        return String.format("{pos=(%.02f,%.02f); delta=(%.02f,%.02f); radius=%.01f}",
+                x[index], y[index], dx[index], dy[index], radius[index]);
+    }
+}
@@ -0,0 +1,31 @@
+package org.devtcg.iodemo.sim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the buffers allocated by the ball and collision structures, which
+ * call {@link #increment} by hand whenever they allocate or grow one. These
+ * structures are sized once up front (or grow to a high water mark and stay
+ * there) so once the demo has warmed up this count should stop moving; if it
+ * doesn't, one of them is churning the GC.
+ * <p>
+ * Nothing else is counted, so a quiet counter doesn't mean the frame loop
+ * allocates nothing. For that, measure real allocations: the stress run
+ * report (DrawThread uses Debug's allocation counting), the bench module's
+ * SoakTest and SteadyStateAllocationTest, or a JMH benchmark run with
+ * {@code -prof gc}.
+ */
+public final class BufferAllocationCounter {
+    private static final AtomicLong sCount = new AtomicLong();
+
+    private BufferAllocationCounter() {
+    }
+
+    public static void increment() {
+        sCount.incrementAndGet();
+    }
+
+    public static long get() {
+        return sCount.get();
+    }
+}
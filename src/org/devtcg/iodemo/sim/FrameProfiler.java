@@ -0,0 +1,152 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Per-frame timing and counters for the frame loop, kept as one
+ * {@link Histogram} per phase.
+ * <p>
+ * A frame's phases are accumulated with {@link #add} as they run (a phase
+ * may run several times per frame, e.g. one physics step per substep) and
+ * recorded into the histograms together by {@link #endFrame}. Only the frame
+ * loop thread may call {@link #add}, {@link #addCount} and
+ * {@link #endFrame}; any thread may read or {@link #reset} the histograms.
+ * A frame loop split across threads may instead have each thread record its
+ * own, disjoint, range of phases with {@link #endPhases} (and one of them the
+ * counters with {@link #endCounts}).
+ * Nothing here allocates after construction.
+ */
+public class FrameProfiler {
+    /* Timed phases, in nanoseconds. */
+    public static final int PHASE_CLOCK = 0;
+    public static final int PHASE_INTEGRATE = 1;
+    public static final int PHASE_BROADPHASE = 2;
+    public static final int PHASE_NARROWPHASE = 3;
+    public static final int PHASE_SNAPSHOT = 4;
+    public static final int PHASE_DRAW = 5;
+    public static final int PHASE_SURFACE_WAIT = 6;
+    public static final int PHASE_FRAME = 7;
+    public static final int PHASE_COUNT = 8;
+
+    /* Counters, in whatever units they count. */
+    public static final int COUNT_BALLS = 0;
+    public static final int COUNT_COLLISION_PAIRS = 1;
+    public static final int COUNT_COUNT = 2;
+
+    private static final String[] PHASE_NAMES = {
+        "clock", "integrate", "broadphase", "narrowphase", "snapshot", "draw", "surface",
+        "frame",
+    };
+
+    private static final String[] COUNT_NAMES = {
+        "balls", "pairs",
+    };
+
+    private final Histogram[] mPhases = new Histogram[PHASE_COUNT];
+    private final Histogram[] mCounts = new Histogram[COUNT_COUNT];
+
+    /* Accumulators for the frame in progress. */
+    private final long[] mFramePhases = new long[PHASE_COUNT];
+    private final long[] mFrameCounts = new long[COUNT_COUNT];
+
+    public FrameProfiler() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mPhases[i] = new Histogram();
+        }
+        for (int i = 0; i < COUNT_COUNT; i++) {
+            mCounts[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Charge the time since {@code startNanos} to a phase of the current
+     * frame.
+     *
+     * @return The current time, so consecutive phases can be chained.
+     */
+    public long add(int phase, long startNanos) {
+        long now = System.nanoTime();
+        mFramePhases[phase] += now - startNanos;
+        return now;
+    }
+
+    public void addCount(int counter, long value) {
+        mFrameCounts[counter] += value;
+    }
+
+    /**
+     * Record the accumulated phases and counters as one frame.
+     */
+    public void endFrame() {
+        endPhases(0, PHASE_COUNT - 1);
+        endCounts();
+    }
+
+    /**
+     * Record phases {@code first} through {@code last} (inclusive) as one
+     * frame.
+     */
+    public void endPhases(int first, int last) {
+        for (int i = first; i <= last; i++) {
+            mPhases[i].record(mFramePhases[i]);
+            mFramePhases[i] = 0;
+        }
+    }
+
+    /**
+     * Record the accumulated counters as one frame.
+     */
+    public void endCounts() {
+        for (int i = 0; i < COUNT_COUNT; i++) {
+            mCounts[i].record(mFrameCounts[i]);
+            mFrameCounts[i] = 0;
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mPhases[i].reset();
+        }
+        for (int i = 0; i < COUNT_COUNT; i++) {
+            mCounts[i].reset();
+        }
+    }
+
+    public Histogram getPhase(int phase) {
+        return mPhases[phase];
+    }
+
+    public Histogram getCount(int counter) {
+        return mCounts[counter];
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    public static String getCountName(int counter) {
+        return COUNT_NAMES[counter];
+    }
+
+    /**
+     * Human readable summary, one line per phase and counter. Allocates, so
+     * call it on demand rather than per frame.
+     */
+    public String dump() {
+        StringBuilder b = new StringBuilder();
+        b.append(String.format("%d frames (times in us)\n", mPhases[PHASE_FRAME].getCount()));
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            Histogram h = mPhases[i];
+            b.append(String.format("%-12s p50=%-8.1f p99=%-8.1f max=%-8.1f mean=%.1f\n",
+                    PHASE_NAMES[i],
+                    h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                    h.getMax() / 1000.0, h.getMean() / 1000.0));
+        }
+        for (int i = 0; i < COUNT_COUNT; i++) {
+            Histogram h = mCounts[i];
+            b.append(String.format("%-12s p50=%-8d p99=%-8d max=%-8d mean=%.1f\n",
+                    COUNT_NAMES[i],
+                    h.getValueAtPercentile(50), h.getValueAtPercentile(99),
+                    h.getMax(), h.getMean()));
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package org.devtcg.iodemo.sim;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a render loop at a target frame rate, and lets it idle until a
+ * deadline or an external wake-up when there is nothing to animate.
+ * <p>
+ * Waits park the calling thread for the bulk of the interval and yield for
+ * only the last {@link #SPIN_NANOS}, which keeps wake-ups close to the
+ * deadline without busy-spinning through the frame. Deadlines advance by
+ * whole intervals so that jitter in one frame doesn't accumulate into drift;
+ * if the loop falls more than a frame behind it simply resynchronizes rather
+ * than rushing to catch up.
+ * <p>
+ * {@link #wake} may be called from any thread and never blocks.
+ */
+public final class FrameScheduler {
+    /* Park granularity is poor on some kernels, so finish off by yielding. */
+    private static final long SPIN_NANOS = 1000000L;
+
+    private volatile long mFrameNanos;
+    private long mNextFrame;
+
+    private volatile Thread mWaiter;
+    private volatile boolean mWakeRequested;
+    private volatile boolean mIdle;
+
+    /**
+     * @param targetFps Frames per second to pace at, or 0 to not pace at all.
+     */
+    public FrameScheduler(int targetFps) {
+        setTargetFps(targetFps);
+    }
+
+    public void setTargetFps(int targetFps) {
+        if (targetFps < 0) {
+            throw new IllegalArgumentException("targetFps must not be negative");
+        }
+        mFrameNanos = targetFps > 0 ? 1000000000L / targetFps : 0;
+    }
+
+    /**
+     * Sleep until the next frame is due. Called once per frame by the render
+     * thread.
+     */
+    public void awaitFrame() {
+        long frameNanos = mFrameNanos;
+        long now = System.nanoTime();
+        if (frameNanos == 0) {
+            mNextFrame = now;
+            return;
+        }
+
+        long deadline = mNextFrame + frameNanos;
+        if (deadline - now < -frameNanos) {
+            /* Fell more than a frame behind; don't try to make it up. */
+            deadline = now;
+        }
+        mNextFrame = deadline;
+
+        sleepUntil(deadline, false);
+    }
+
+    /**
+     * Sleep until {@code deadline} (a {@link System#nanoTime} value) or until
+     * {@link #wake} is called, whichever comes first. A wake-up requested
+     * while the render thread was busy makes this return immediately.
+     *
+     * @return True if woken early.
+     */
+    public boolean awaitIdle(long deadline) {
+        mIdle = true;
+        try {
+            boolean woken = sleepUntil(deadline, true);
+            mWakeRequested = false;
+            /* Pace the following frame from now, not from before the nap. */
+            mNextFrame = System.nanoTime();
+            return woken;
+        } finally {
+            mIdle = false;
+        }
+    }
+
+    /**
+     * True while the render thread is inside {@link #awaitIdle}. Callers use
+     * this to skip work deciding whether to {@link #wake} a busy thread.
+     */
+    public boolean isIdle() {
+        return mIdle;
+    }
+
+    /**
+     * Cut short the current (or next) {@link #awaitIdle}.
+     */
+    public void wake() {
+        mWakeRequested = true;
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    private boolean sleepUntil(long deadline, boolean wakeable) {
+        mWaiter = Thread.currentThread();
+        try {
+            while (true) {
+                if (wakeable && mWakeRequested) {
+                    return true;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                if (remaining > SPIN_NANOS) {
+                    LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+                } else {
+                    Thread.yield();
+                }
+            }
+        } finally {
+            mWaiter = null;
+        }
+    }
+}
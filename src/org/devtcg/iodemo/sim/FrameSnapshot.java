@@ -0,0 +1,76 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Copy of everything needed to draw one frame of a {@link Simulation}, so
+ * that a renderer can rasterize it on another thread while the simulation
+ * moves on to the next frame. See {@link SnapshotPipeline}.
+ */
+public final class FrameSnapshot {
+    private final BallStore mClockBalls;
+    private final BallStore mAnimatingBalls;
+    private int mClockVersion = -1;
+    private float mInterpolation = 1f;
+    private long mSimulationNanos;
+
+    /**
+     * Allocate a snapshot big enough to hold any state of
+     * {@code simulation}.
+     */
+    public FrameSnapshot(Simulation simulation) {
+        mClockBalls = new BallStore(simulation.getClockBalls().getCapacity());
+        mAnimatingBalls = new BallStore(simulation.getAnimatingBalls().getCapacity());
+    }
+
+    /**
+     * Copy the current state of {@code simulation}. The clock balls are only
+     * copied when the clock has changed since this snapshot last captured it.
+     */
+    public void capture(Simulation simulation) {
+        int clockVersion = simulation.getClockVersion();
+        if (clockVersion != mClockVersion) {
+            mClockBalls.copyFrom(simulation.getClockBalls());
+            mClockVersion = clockVersion;
+        }
+        mAnimatingBalls.copyFrom(simulation.getAnimatingBalls());
+        mInterpolation = simulation.getInterpolation();
+    }
+
+    /**
+     * @see Simulation#getClockBalls
+     */
+    public BallStore getClockBalls() {
+        return mClockBalls;
+    }
+
+    /**
+     * @see Simulation#getAnimatingBalls
+     */
+    public BallStore getAnimatingBalls() {
+        return mAnimatingBalls;
+    }
+
+    /**
+     * @see Simulation#getClockVersion
+     */
+    public int getClockVersion() {
+        return mClockVersion;
+    }
+
+    /**
+     * @see Simulation#getInterpolation
+     */
+    public float getInterpolation() {
+        return mInterpolation;
+    }
+
+    /**
+     * Time the producer spent simulating this frame, for reporting.
+     */
+    public long getSimulationNanos() {
+        return mSimulationNanos;
+    }
+
+    public void setSimulationNanos(long simulationNanos) {
+        mSimulationNanos = simulationNanos;
+    }
+}
@@ -0,0 +1,126 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Low-pass filter over raw accelerometer samples that yields the device's
+ * pitch, which is all the simulation needs from the sensors.
+ * <p>
+ * Samples are fed in once per simulation step, however many the sensor
+ * delivered in between, and blended in with a weight based on the time
+ * since the last one so that the filter's time constant doesn't depend on
+ * the frame or sensor rate. Pitch is derived from the filtered vector the
+ * same way SensorManager.getOrientation derives it from a rotation matrix,
+ * asin(-y / |g|), which doesn't involve the magnetometer at all, and only
+ * when asked for.
+ * <p>
+ * Not thread safe; owned by the simulation thread.
+ */
+public final class GravityFilter {
+    /*
+     * Shaking the device or tapping the screen shows up as short spikes;
+     * tilting it is much slower than this.
+     */
+    private static final long DEFAULT_TIME_CONSTANT_NANOS = 80000000L;
+
+    /* Below this magnitude (in m/s^2) the device is in free fall. */
+    private static final float MIN_MAGNITUDE = 0.5f;
+
+    private final long mTimeConstantNanos;
+
+    private boolean mPrimed;
+    private long mLastTimestamp;
+    private float mX;
+    private float mY;
+    private float mZ;
+
+    private boolean mPitchStale;
+    private float mPitch;
+
+    public GravityFilter() {
+        this(DEFAULT_TIME_CONSTANT_NANOS);
+    }
+
+    /**
+     * @param timeConstantNanos Time for the output to cover ~63% of a step
+     *            change in input; 0 to not filter at all.
+     */
+    public GravityFilter(long timeConstantNanos) {
+        mTimeConstantNanos = timeConstantNanos;
+    }
+
+    /**
+     * Blend in the latest sample. A sample already seen (same timestamp) is
+     * ignored.
+     */
+    public void update(SensorSnapshot.Sample sample) {
+        if (mPrimed && sample.timestamp == mLastTimestamp) {
+            return;
+        }
+        if (!mPrimed || mTimeConstantNanos <= 0) {
+            mX = sample.gravityX;
+            mY = sample.gravityY;
+            mZ = sample.gravityZ;
+            mPrimed = true;
+        } else {
+            long dt = Math.max(0, sample.timestamp - mLastTimestamp);
+            float alpha = (float)dt / (mTimeConstantNanos + dt);
+            mX += (sample.gravityX - mX) * alpha;
+            mY += (sample.gravityY - mY) * alpha;
+            mZ += (sample.gravityZ - mZ) * alpha;
+        }
+        mLastTimestamp = sample.timestamp;
+        mPitchStale = true;
+    }
+
+    /**
+     * Forget past samples; the next one is taken as is.
+     */
+    public void reset() {
+        mPrimed = false;
+        mPitch = 0f;
+        mPitchStale = false;
+    }
+
+    public boolean hasSample() {
+        return mPrimed;
+    }
+
+    /**
+     * Filtered acceleration along the device's x axis. Negative when the
+     * device is upside down.
+     */
+    public float getX() {
+        return mX;
+    }
+
+    /**
+     * Pitch of the filtered reading, in radians. While the device is in free
+     * fall the last good pitch is kept.
+     */
+    public float getPitch() {
+        if (mPitchStale) {
+            mPitchStale = false;
+            float magnitude = (float)Math.sqrt(mX * mX + mY * mY + mZ * mZ);
+            if (magnitude >= MIN_MAGNITUDE) {
+                mPitch = pitchOf(mY, magnitude);
+            }
+        }
+        return mPitch;
+    }
+
+    /**
+     * Pitch of a single unfiltered sample, or NaN in free fall.
+     */
+    public static float getPitch(SensorSnapshot.Sample sample) {
+        float x = sample.gravityX;
+        float y = sample.gravityY;
+        float z = sample.gravityZ;
+        float magnitude = (float)Math.sqrt(x * x + y * y + z * z);
+        return magnitude >= MIN_MAGNITUDE ? pitchOf(y, magnitude) : Float.NaN;
+    }
+
+    private static float pitchOf(float y, float magnitude) {
+        float sin = -y / magnitude;
+        /* Guard against rounding just past +/-1. */
+        return (float)Math.asin(Math.max(-1f, Math.min(1f, sin)));
+    }
+}
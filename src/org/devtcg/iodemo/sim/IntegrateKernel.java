@@ -0,0 +1,49 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * The integrate-and-bounce part of a physics step: apply gravity to each
+ * awake ball, bounce it off the floor and ceiling, and move it. Pulled out
+ * behind an interface so that platforms with SIMD support can substitute a
+ * vectorized loop (see the bench module); {@link ScalarIntegrateKernel} is
+ * the reference.
+ * <p>
+ * Every ball is independent of the others, so implementations may be called
+ * concurrently for disjoint ranges.
+ */
+public interface IntegrateKernel {
+    /**
+     * Apply one step to balls [from, to).
+     */
+    public void integrate(BallStore balls, int from, int to, Step step);
+
+    /**
+     * Inputs shared by every ball for the step in progress.
+     */
+    public static final class Step {
+        /** Added to each ball's dx and dy. */
+        public float horizontalForce;
+        public float verticalForce;
+
+        /** Multiplies velocities to get this step's displacement. */
+        public float velocityScale;
+
+        /** Height of the area balls bounce within. */
+        public float height;
+
+        /** Smallest speed a ball leaves the floor or ceiling with. */
+        public float minBounceSpeed;
+
+        /** Fraction of vertical speed kept through a bounce. */
+        public float bounceFactor;
+
+        /**
+         * Horizontal speed below which a ball that is already a candidate for
+         * sleep (see {@link BallStore#restCount}) no longer gets the minimum
+         * bounce, so that it can come to rest.
+         */
+        public float sleepSpeed;
+
+        /** False to update velocities only, leaving positions alone. */
+        public boolean move;
+    }
+}
@@ -1,4 +1,4 @@
-package org.devtcg.iodemo;
+package org.devtcg.iodemo.sim;
 
 public class NumberFont {
     public static final Glyph[] sFont;
@@ -6,6 +6,19 @@ public class NumberFont {
     public static final int CONSTANT_WIDTH = 4;
     public static final int CONSTANT_HEIGHT = 7;
 
+    /**
+     * Cells per glyph, and so the number of bits used in a glyph mask. Cell
+     * (x, y) is bit {@code x * CONSTANT_HEIGHT + y}; see {@link #bit}.
+     */
+    public static final int CELL_COUNT = CONSTANT_WIDTH * CONSTANT_HEIGHT;
+
+    /*
+     * Cells that go dark and cells that light up when a digit changes from
+     * [from] to [to], so a transition only visits the cells that change.
+     */
+    private static final int[][] sTurnedOff = new int[10][10];
+    private static final int[][] sTurnedOn = new int[10][10];
+
     static {
         sFont = new Glyph[10];
         sFont[0] = new Glyph(new int[][] {
@@ -98,28 +111,72 @@ public class NumberFont {
                 { 0, 0, 0, 1 },
                 { 1, 1, 1, 1 },
         });
+
+        for (int from = 0; from < 10; from++) {
+            int fromMask = sFont[from].getMask();
+            for (int to = 0; to < 10; to++) {
+                int toMask = sFont[to].getMask();
+                sTurnedOff[from][to] = fromMask & ~toMask;
+                sTurnedOn[from][to] = toMask & ~fromMask;
+            }
+        }
+    }
+
+    /**
+     * Bit representing cell (x, y) in a glyph mask. Cells are numbered
+     * column by column.
+     */
+    public static int bit(int x, int y) {
+        return x * CONSTANT_HEIGHT + y;
+    }
+
+    /**
+     * Mask of the cells lit in digit {@code from} but not in digit {@code to}.
+     */
+    public static int getTurnedOff(int from, int to) {
+        return sTurnedOff[from][to];
+    }
+
+    /**
+     * Mask of the cells lit in digit {@code to} but not in digit {@code from}.
+     */
+    public static int getTurnedOn(int from, int to) {
+        return sTurnedOn[from][to];
     }
 
     public static class Glyph {
-        private int[][] mBitMap = new int[CONSTANT_HEIGHT][CONSTANT_WIDTH];
+        /* Lit cells, one bit per cell; see NumberFont#bit. */
+        private final int mMask;
 
         private Glyph(int[][] bitmap) {
             if (bitmap.length != CONSTANT_HEIGHT || bitmap[0].length != CONSTANT_WIDTH) {
                 throw new IllegalArgumentException("Unexpected bitmap dimensions");
             }
-            mBitMap = bitmap;
+            int mask = 0;
+            for (int y = 0; y < CONSTANT_HEIGHT; y++) {
+                for (int x = 0; x < CONSTANT_WIDTH; x++) {
+                    if (bitmap[y][x] != 0) {
+                        mask |= 1 << bit(x, y);
+                    }
+                }
+            }
+            mMask = mask;
         }
 
         public int getWidth() {
-            return mBitMap[0].length;
+            return CONSTANT_WIDTH;
         }
 
         public int getHeight() {
-            return mBitMap.length;
+            return CONSTANT_HEIGHT;
+        }
+
+        public int getMask() {
+            return mMask;
         }
 
         public boolean isLit(int x, int y) {
-            return mBitMap[y][x] != 0;
+            return (mMask & (1 << bit(x, y))) != 0;
         }
     }
 }
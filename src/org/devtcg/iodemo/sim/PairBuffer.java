@@ -0,0 +1,67 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Growable list of candidate collision pairs produced by a broadphase. Pairs
+ * are stored as consecutive index entries so that the narrowphase can walk
+ * them without any per-pair object allocation.
+ */
+class PairBuffer {
+    private int[] mPairs;
+    private int mSize;
+
+    public PairBuffer(int initialCapacity) {
+        mPairs = new int[Math.max(initialCapacity, 1) * 2];
+        BufferAllocationCounter.increment();
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    public void add(int a, int b) {
+        int offset = mSize * 2;
+        if (offset + 2 > mPairs.length) {
+            int[] pairs = new int[mPairs.length * 2];
+            System.arraycopy(mPairs, 0, pairs, 0, offset);
+            mPairs = pairs;
+            BufferAllocationCounter.increment();
+        }
+        mPairs[offset] = a;
+        mPairs[offset + 1] = b;
+        mSize++;
+    }
+
+    /**
+     * Apply a compaction of the ball store, dropping pairs that involve a
+     * removed ball.
+     *
+     * @param newIndex Maps each old ball index to its new index, or -1 if it
+     *            was removed.
+     */
+    public void remap(int[] newIndex) {
+        int[] pairs = mPairs;
+        int N = mSize * 2;
+        int live = 0;
+        for (int k = 0; k < N; k += 2) {
+            int a = newIndex[pairs[k]];
+            int b = newIndex[pairs[k + 1]];
+            if (a >= 0 && b >= 0) {
+                pairs[live++] = a;
+                pairs[live++] = b;
+            }
+        }
+        mSize = live / 2;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getFirst(int pair) {
+        return mPairs[pair * 2];
+    }
+
+    public int getSecond(int pair) {
+        return mPairs[pair * 2 + 1];
+    }
+}
@@ -0,0 +1,138 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Watches frame times and picks a quality level that keeps them within a
+ * budget. Quality is shed one level at a time, cheapest visual cost first,
+ * when too many recent frames run over budget, and restored one level at a
+ * time once frames have run well under budget for a while. What each level
+ * means is up to the caller; see the {@code LEVEL_} constants for the
+ * intended order.
+ * <p>
+ * Frames are judged in windows of {@link #WINDOW_FRAMES}. The window right
+ * after a change is skipped, so the effect of the change is measured before
+ * the next one is made.
+ * <p>
+ * Only one thread may record frames; any thread may read the level.
+ */
+public final class QualityGovernor {
+    /** Everything on. */
+    public static final int LEVEL_FULL = 0;
+
+    /** Half as many physics steps per second. */
+    public static final int LEVEL_HALF_STEP_RATE = 1;
+
+    /** Broadphase only every other step; see BallSimulation#setBroadphaseInterval. */
+    public static final int LEVEL_ALTERNATE_BROADPHASE = 2;
+
+    /** No more spawned glyphs than there are balls already. */
+    public static final int LEVEL_CAP_SPAWNS = 3;
+
+    /** Balls drawn without anti-aliasing (or, as sprites, without filtering). */
+    public static final int LEVEL_NO_ANTI_ALIAS = 4;
+
+    public static final int LEVEL_COUNT = 5;
+
+    private static final String[] LEVEL_NAMES = {
+        "full", "half step rate", "alternate broadphase", "cap spawns", "no anti-alias",
+    };
+
+    public static final int WINDOW_FRAMES = 30;
+
+    /* Shed quality if more than this many frames in a window were over budget. */
+    static final int MAX_SLOW_FRAMES = WINDOW_FRAMES / 10;
+
+    /*
+     * Restore quality after this many windows in a row whose frames all came
+     * in under this fraction of the budget.
+     */
+    static final int RESTORE_WINDOWS = 4;
+    private static final float RESTORE_HEADROOM = 0.6f;
+
+    private final long mBudgetNanos;
+    private final long mRestoreNanos;
+
+    private volatile int mLevel = LEVEL_FULL;
+
+    private int mWindowFrames;
+    private int mWindowSlowFrames;
+    private long mWindowMaxNanos;
+    private int mFastWindows;
+    private boolean mSettling;
+
+    /**
+     * @param budgetNanos Frame time to stay within.
+     */
+    public QualityGovernor(long budgetNanos) {
+        mBudgetNanos = budgetNanos;
+        mRestoreNanos = (long)(budgetNanos * RESTORE_HEADROOM);
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public static String getLevelName(int level) {
+        return LEVEL_NAMES[level];
+    }
+
+    /**
+     * Go back to full quality and forget recent frames.
+     */
+    public void reset() {
+        mLevel = LEVEL_FULL;
+        mWindowFrames = 0;
+        mWindowSlowFrames = 0;
+        mWindowMaxNanos = 0;
+        mFastWindows = 0;
+        mSettling = false;
+    }
+
+    /**
+     * @return True if the level changed as a result of this frame.
+     */
+    public boolean recordFrame(long frameNanos) {
+        if (frameNanos > mBudgetNanos) {
+            mWindowSlowFrames++;
+        }
+        if (frameNanos > mWindowMaxNanos) {
+            mWindowMaxNanos = frameNanos;
+        }
+        if (++mWindowFrames < WINDOW_FRAMES) {
+            return false;
+        }
+
+        int slowFrames = mWindowSlowFrames;
+        long maxNanos = mWindowMaxNanos;
+        mWindowFrames = 0;
+        mWindowSlowFrames = 0;
+        mWindowMaxNanos = 0;
+
+        if (mSettling) {
+            mSettling = false;
+            return false;
+        }
+
+        int level = mLevel;
+        if (slowFrames > MAX_SLOW_FRAMES) {
+            mFastWindows = 0;
+            if (level < LEVEL_COUNT - 1) {
+                changeLevel(level + 1);
+                return true;
+            }
+        } else if (maxNanos < mRestoreNanos) {
+            if (++mFastWindows >= RESTORE_WINDOWS && level > LEVEL_FULL) {
+                changeLevel(level - 1);
+                return true;
+            }
+        } else {
+            mFastWindows = 0;
+        }
+        return false;
+    }
+
+    private void changeLevel(int level) {
+        mLevel = level;
+        mFastWindows = 0;
+        mSettling = true;
+    }
+}
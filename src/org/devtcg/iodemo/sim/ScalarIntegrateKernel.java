@@ -0,0 +1,86 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * The plain one-ball-at-a-time integration loop. This is what the simulation
+ * uses unless told otherwise, and the reference other kernels are checked
+ * against.
+ */
+public final class ScalarIntegrateKernel implements IntegrateKernel {
+    public void integrate(BallStore balls, int from, int to, Step step) {
+        boolean move = step.move;
+        float horizontalForce = step.horizontalForce;
+        float verticalForce = step.verticalForce;
+        float velocityScale = step.velocityScale;
+        float height = step.height;
+        float minBounceSpeed = step.minBounceSpeed;
+        float bounceFactor = step.bounceFactor;
+        float sleepSpeed = step.sleepSpeed;
+
+        float[] xs = balls.x;
+        float[] ys = balls.y;
+        float[] dxs = balls.dx;
+        float[] dys = balls.dy;
+        boolean[] asleep = balls.asleep;
+        byte[] restCount = balls.restCount;
+
+        for (int i = from; i < to; i++) {
+            if (asleep[i]) {
+                continue;
+            }
+
+            /* Apply the device pitch (as an accelerating force). */
+            float dx = dxs[i] + horizontalForce;
+            dxs[i] = dx;
+
+            /* Apply vertical acceleration. */
+            float dy = dys[i] + verticalForce;
+            float posy = ys[i] + dy * velocityScale;
+            if ((posy > height && dy > 0) || (posy < 0 && dy < 0)) {
+                float wall = dy > 0 ? height : 0;
+                float incoming = dy;
+
+                /*
+                 * The kick keeps balls hopping. One that has all but stopped
+                 * moving sideways gets it once and is then a candidate for
+                 * sleep (restCount above 0), left to lose its bounce and come
+                 * to rest instead.
+                 */
+                boolean candidate = Math.abs(dx) < sleepSpeed;
+                if (!candidate || restCount[i] == 0) {
+                    boolean kicked = false;
+                    if (dy > 0 && dy < minBounceSpeed) {
+                        dy = minBounceSpeed;
+                        kicked = true;
+                    } if (dy < 0 && dy > -minBounceSpeed) {
+                        dy = -minBounceSpeed;
+                        kicked = true;
+                    }
+                    if (kicked && candidate) {
+                        restCount[i] = 1;
+                    }
+                }
+                dy *= -bounceFactor;
+
+                /*
+                 * Send the ball back from the wall by however far it went
+                 * past it, in proportion to its new speed, so that how high
+                 * it bounces doesn't depend on where in the step it hit. A
+                 * ball that was already past the wall (pushed there by a
+                 * collision), or that is only resting against it, just turns
+                 * around; lifting those would keep stirring up piles.
+                 */
+                if ((ys[i] - wall) * (posy - wall) <= 0
+                        && Math.abs(incoming) > minBounceSpeed) {
+                    posy = wall + (posy - wall) * (dy / incoming);
+                }
+            }
+            dys[i] = dy;
+
+            /* Reposition. */
+            if (move) {
+                xs[i] += dx * velocityScale;
+                ys[i] = posy;
+            }
+        }
+    }
+}
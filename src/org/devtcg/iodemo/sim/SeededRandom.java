@@ -0,0 +1,51 @@
+package org.devtcg.iodemo.sim;
+
+import java.util.Random;
+
+/**
+ * {@link Random} whose internal state can be read back and restored, so a
+ * saved simulation picks up its sequence of random numbers exactly where it
+ * left off. Uses the same generator as Random, so for a given seed the
+ * sequence is unchanged.
+ * <p>
+ * Only the generator state is captured; {@link #nextGaussian} keeps a
+ * second value in reserve that is not, so it shouldn't be relied on across
+ * a restore. Unlike Random, not safe to share between threads.
+ */
+class SeededRandom extends Random {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private static final long serialVersionUID = 1L;
+
+    /* Not initialized here: Random's constructor sets it through setSeed. */
+    private long mState;
+
+    public SeededRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        super.setSeed(seed);
+        mState = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        mState = (mState * MULTIPLIER + ADDEND) & MASK;
+        return (int)(mState >>> (48 - bits));
+    }
+
+    /**
+     * The generator's current state; not the seed it was created with.
+     */
+    public long getState() {
+        return mState;
+    }
+
+    public void setState(long state) {
+        mState = state & MASK;
+    }
+}
@@ -0,0 +1,74 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Latest raw accelerometer reading, handed from the sensor callback thread to
+ * the simulation thread without a lock. Anything derived from it (see
+ * {@link GravityFilter}) is left to the reader, so the callback stays cheap
+ * and readings nobody gets around to reading cost nothing extra.
+ * <p>
+ * This is a seqlock: the single writer bumps the sequence to an odd value,
+ * stores the fields, then bumps it back to even. A reader retries until it
+ * sees the same even sequence before and after copying the fields, so it
+ * never observes a half-written sample and the writer never waits. All
+ * fields are volatile so the sequence checks actually order the data reads
+ * under the Java memory model.
+ */
+public final class SensorSnapshot {
+    private volatile int mSequence;
+
+    private volatile float mGravityX;
+    private volatile float mGravityY;
+    private volatile float mGravityZ;
+    private volatile long mTimestamp;
+
+    /**
+     * Publish a new sample. Only one thread may call this.
+     *
+     * @param gData Raw accelerometer values (at least 3).
+     * @param timestamp When the sample was taken, in nanoseconds.
+     */
+    public void write(float[] gData, long timestamp) {
+        int sequence = mSequence;
+        mSequence = sequence + 1;
+        mGravityX = gData[0];
+        mGravityY = gData[1];
+        mGravityZ = gData[2];
+        mTimestamp = timestamp;
+        mSequence = sequence + 2;
+    }
+
+    /**
+     * Copy a consistent sample into <code>out</code>.
+     *
+     * @return False if nothing has been written yet.
+     */
+    public boolean read(Sample out) {
+        while (true) {
+            int before = mSequence;
+            if (before == 0) {
+                return false;
+            }
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            out.gravityX = mGravityX;
+            out.gravityY = mGravityY;
+            out.gravityZ = mGravityZ;
+            out.timestamp = mTimestamp;
+            if (mSequence == before) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reader-owned copy of one sample.
+     */
+    public static final class Sample {
+        public float gravityX;
+        public float gravityY;
+        public float gravityZ;
+        public long timestamp;
+    }
+}
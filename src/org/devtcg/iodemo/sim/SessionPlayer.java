@@ -0,0 +1,125 @@
+package org.devtcg.iodemo.sim;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a session written by {@link SessionRecorder} and feeds it, one frame
+ * at a time, into a simulation constructed with {@link #getCountdownTo} and
+ * {@link #getSeed}.
+ */
+public class SessionPlayer {
+    private final DataInputStream mIn;
+    private final long mCountdownTo;
+    private final long mSeed;
+
+    private long mMillis;
+    private long mNanos;
+
+    /**
+     * Reads the session header; throws if {@code in} doesn't start with one.
+     */
+    public SessionPlayer(InputStream in) throws IOException {
+        mIn = new DataInputStream(new BufferedInputStream(in));
+        if (mIn.readInt() != SessionRecorder.MAGIC) {
+            throw new IOException("Not a recorded session");
+        }
+        int version = mIn.readUnsignedShort();
+        /* Version 2 only added records, so version 1 sessions still play. */
+        if (version < 1 || version > SessionRecorder.VERSION) {
+            throw new IOException("Unsupported session version " + version);
+        }
+        mCountdownTo = mIn.readLong();
+        mSeed = mIn.readLong();
+    }
+
+    public long getCountdownTo() {
+        return mCountdownTo;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * Wall clock time of the last frame played.
+     */
+    public long getFrameMillis() {
+        return mMillis;
+    }
+
+    /**
+     * {@link System#nanoTime} of the last frame played, as recorded.
+     */
+    public long getFrameNanos() {
+        return mNanos;
+    }
+
+    /**
+     * Apply the inputs recorded for the next frame to {@code target}, up to
+     * and including its {@link Simulation#update}.
+     *
+     * @return False if the session is over; a frame cut off by the end of
+     *         the stream is not played.
+     */
+    public boolean playFrame(Simulation target) throws IOException {
+        DataInputStream in = mIn;
+        while (true) {
+            int tag = in.read();
+            if (tag < 0) {
+                return false;
+            }
+            try {
+                switch (tag) {
+                    case SessionRecorder.TAG_SURFACE_SIZE:
+                        target.setSurfaceSize(in.readInt(), in.readInt());
+                        break;
+                    case SessionRecorder.TAG_GRAVITY:
+                        target.setGravity(in.readFloat(), in.readFloat());
+                        break;
+                    case SessionRecorder.TAG_SPAWN:
+                        target.spawnGlyph(in.readFloat(), in.readFloat());
+                        break;
+                    case SessionRecorder.TAG_STEP_RATE:
+                        target.setFixedStepRate(in.readInt());
+                        break;
+                    case SessionRecorder.TAG_BROADPHASE_INTERVAL:
+                        target.setBroadphaseInterval(in.readInt());
+                        break;
+                    case SessionRecorder.TAG_SPAWN_LIMIT:
+                        target.setSpawnLimit(in.readInt());
+                        break;
+                    case SessionRecorder.TAG_FRAME:
+                        mMillis += readVarLong(in);
+                        mNanos += readVarLong(in);
+                        target.update(mMillis, mNanos);
+                        return true;
+                    default:
+                        throw new IOException("Unknown record tag=" + tag);
+                }
+            } catch (EOFException e) {
+                /* The recording was cut short mid-record (e.g. by a crash). */
+                return false;
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,219 @@
+package org.devtcg.iodemo.sim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Wraps a {@link Simulation}, writing every input it is given (surface size,
+ * gravity, spawned glyphs, frame timestamps, and changes to the settings that
+ * affect the outcome, such as the step rate) to a compact binary stream
+ * that {@link SessionPlayer} can feed back into a fresh simulation later.
+ * Since the simulation is otherwise deterministic given its seed, the replay
+ * reproduces the recorded session exactly, frame for frame.
+ * <p>
+ * Inputs are recorded at the point they reach the simulation rather than as
+ * raw sensor or touch events, so a replay sees each of them on the same frame
+ * it originally took effect.
+ * <p>
+ * Write errors stop the recording but are otherwise ignored so that a full
+ * disk can't take down the session being recorded; see {@link #getError}.
+ */
+public class SessionRecorder implements Simulation {
+    static final int MAGIC = 0x494f5253; /* "IORS" */
+    static final int VERSION = 2;
+
+    static final int TAG_SURFACE_SIZE = 1;
+    static final int TAG_GRAVITY = 2;
+    static final int TAG_SPAWN = 3;
+    static final int TAG_FRAME = 4;
+    /* Added in version 2. */
+    static final int TAG_STEP_RATE = 5;
+    static final int TAG_BROADPHASE_INTERVAL = 6;
+    static final int TAG_SPAWN_LIMIT = 7;
+
+    private final Simulation mTarget;
+
+    private DataOutputStream mOut;
+    private IOException mError;
+
+    /* Inputs as of the last record, for delta encoding. */
+    private float mLastGravityX = Float.NaN;
+    private float mLastGravityY = Float.NaN;
+    private long mLastMillis;
+    private long mLastNanos;
+
+    /**
+     * @param target Simulation to pass every call through to. Must be freshly
+     *            constructed with {@code countdownTo} and {@code seed}, and
+     *            not yet have been given any input.
+     * @param out Stream to record to. Buffered internally, and closed by
+     *            {@link #close}.
+     */
+    public SessionRecorder(Simulation target, OutputStream out, long countdownTo, long seed) {
+        mTarget = target;
+        mOut = new DataOutputStream(new BufferedOutputStream(out));
+        try {
+            mOut.writeInt(MAGIC);
+            mOut.writeShort(VERSION);
+            mOut.writeLong(countdownTo);
+            mOut.writeLong(seed);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * The error that stopped the recording, or null if it's still going.
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    /**
+     * Flush and close the stream. Later inputs are still passed through to
+     * the simulation, but no longer recorded.
+     */
+    public void close() throws IOException {
+        DataOutputStream out = mOut;
+        mOut = null;
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    public void setSurfaceSize(int width, int height) {
+        mTarget.setSurfaceSize(width, height);
+        DataOutputStream out = mOut;
+        if (out != null) {
+            try {
+                out.writeByte(TAG_SURFACE_SIZE);
+                out.writeInt(width);
+                out.writeInt(height);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    public void setGravity(float x, float y) {
+        mTarget.setGravity(x, y);
+        DataOutputStream out = mOut;
+        if (out != null && (x != mLastGravityX || y != mLastGravityY)) {
+            mLastGravityX = x;
+            mLastGravityY = y;
+            try {
+                out.writeByte(TAG_GRAVITY);
+                out.writeFloat(x);
+                out.writeFloat(y);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    public void spawnGlyph(float x, float y) {
+        mTarget.spawnGlyph(x, y);
+        DataOutputStream out = mOut;
+        if (out != null) {
+            try {
+                out.writeByte(TAG_SPAWN);
+                out.writeFloat(x);
+                out.writeFloat(y);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    public void setFixedStepRate(int stepsPerSecond) {
+        mTarget.setFixedStepRate(stepsPerSecond);
+        writeSetting(TAG_STEP_RATE, stepsPerSecond);
+    }
+
+    public void setBroadphaseInterval(int steps) {
+        mTarget.setBroadphaseInterval(steps);
+        writeSetting(TAG_BROADPHASE_INTERVAL, steps);
+    }
+
+    public void setSpawnLimit(int maxBalls) {
+        mTarget.setSpawnLimit(maxBalls);
+        writeSetting(TAG_SPAWN_LIMIT, maxBalls);
+    }
+
+    public void update(long nowMillis, long nowNanos) {
+        mTarget.update(nowMillis, nowNanos);
+        DataOutputStream out = mOut;
+        if (out != null) {
+            try {
+                out.writeByte(TAG_FRAME);
+                writeVarLong(out, nowMillis - mLastMillis);
+                writeVarLong(out, nowNanos - mLastNanos);
+            } catch (IOException e) {
+                fail(e);
+            }
+            mLastMillis = nowMillis;
+            mLastNanos = nowNanos;
+        }
+    }
+
+    public boolean isAnimating() {
+        return mTarget.isAnimating();
+    }
+
+    public long getMillisUntilClockChange(long nowMillis) {
+        return mTarget.getMillisUntilClockChange(nowMillis);
+    }
+
+    public BallStore getClockBalls() {
+        return mTarget.getClockBalls();
+    }
+
+    public BallStore getAnimatingBalls() {
+        return mTarget.getAnimatingBalls();
+    }
+
+    public int getClockVersion() {
+        return mTarget.getClockVersion();
+    }
+
+    public float getInterpolation() {
+        return mTarget.getInterpolation();
+    }
+
+    private void writeSetting(int tag, int value) {
+        DataOutputStream out = mOut;
+        if (out != null) {
+            try {
+                out.writeByte(tag);
+                out.writeInt(value);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        mError = e;
+        DataOutputStream out = mOut;
+        mOut = null;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Write a signed value as a zigzag-encoded base 128 varint; frame to frame
+     * deltas almost always fit in a few bytes.
+     */
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7fL) != 0) {
+            out.writeByte((int)(v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int)v);
+    }
+}
@@ -0,0 +1,87 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * The countdown clock and its bouncing balls, independent of how (or
+ * whether) they get drawn. Implementations depend only on plain Java so that
+ * they can be driven headless on a desktop JVM for profiling and testing.
+ * <p>
+ * Implementations are not thread safe; callers must serialize access.
+ */
+public interface Simulation {
+    /**
+     * Set the size of the area the clock is laid out in and the balls bounce
+     * around in, in pixels. Must be called before the first {@link #update}.
+     */
+    public void setSurfaceSize(int width, int height);
+
+    /**
+     * Set the direction that balls are pulled in. (0, 1) pulls straight
+     * toward the bottom of the surface; the magnitude scales the pull.
+     */
+    public void setGravity(float x, float y);
+
+    /**
+     * Spawn a random glyph worth of balls centered at the given point.
+     */
+    public void spawnGlyph(float x, float y);
+
+    /**
+     * Run physics in fixed steps of {@code 1 / stepsPerSecond} seconds, or
+     * once per frame if 0.
+     */
+    public void setFixedStepRate(int stepsPerSecond);
+
+    /**
+     * Run the collision broadphase only every {@code steps} physics steps.
+     */
+    public void setBroadphaseInterval(int steps);
+
+    /**
+     * Drop spawned glyphs once there are {@code maxBalls} animating balls.
+     */
+    public void setSpawnLimit(int maxBalls);
+
+    /**
+     * Advance the clock to {@code nowMillis} (wall clock time, used for the
+     * countdown) and the physics to {@code nowNanos} (from
+     * {@link System#nanoTime}, used for animation).
+     */
+    public void update(long nowMillis, long nowNanos);
+
+    /**
+     * True if anything is moving, meaning the next {@link #update} will
+     * change what's on screen even if the clock doesn't tick.
+     */
+    public boolean isAnimating();
+
+    /**
+     * Milliseconds from {@code nowMillis} until the clock face next changes,
+     * or -1 if it never will (the countdown is over). Lets an idle renderer
+     * sleep until exactly when it has something new to draw.
+     */
+    public long getMillisUntilClockChange(long nowMillis);
+
+    /**
+     * Balls that make up the clock face, including the unlit (gray) ones.
+     */
+    public BallStore getClockBalls();
+
+    /**
+     * Balls that have broken free of the clock (or were spawned) and are
+     * bouncing around.
+     */
+    public BallStore getAnimatingBalls();
+
+    /**
+     * Counter that changes whenever any clock ball moves or changes color, so
+     * that renderers can cache the clock face between changes.
+     */
+    public int getClockVersion();
+
+    /**
+     * How far (0 to 1) between each animating ball's previous and current
+     * position it should be drawn to smooth over physics steps that don't
+     * line up with frames.
+     */
+    public float getInterpolation();
+}
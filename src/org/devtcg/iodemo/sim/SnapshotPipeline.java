@@ -0,0 +1,102 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Two-stage frame pipeline between a simulation thread, which fills
+ * {@link FrameSnapshot}s, and a render thread, which draws them.
+ * <p>
+ * There are exactly two snapshots. While the renderer draws one, the
+ * simulation fills the other; the simulation can therefore run at most one
+ * frame ahead of what's on screen, which keeps input latency bounded. If the
+ * renderer falls behind, a newly published snapshot replaces one that was
+ * never drawn, so the renderer always draws the latest frame.
+ */
+public final class SnapshotPipeline {
+    /* Guarded by this. */
+    private FrameSnapshot mFree1;
+    private FrameSnapshot mFree2;
+    private FrameSnapshot mReady;
+    private boolean mClosed;
+
+    public SnapshotPipeline(Simulation simulation) {
+        mFree1 = new FrameSnapshot(simulation);
+        mFree2 = new FrameSnapshot(simulation);
+    }
+
+    /**
+     * Take a snapshot to fill, waiting for the renderer to finish with one
+     * if necessary. Simulation thread only.
+     *
+     * @return The snapshot, or null if the pipeline has been closed.
+     */
+    public synchronized FrameSnapshot beginWrite() throws InterruptedException {
+        while (!mClosed) {
+            FrameSnapshot snapshot = takeFree();
+            if (snapshot != null) {
+                return snapshot;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    /**
+     * Hand a filled snapshot to the renderer. A snapshot published earlier
+     * and not yet drawn is dropped.
+     */
+    public synchronized void publish(FrameSnapshot snapshot) {
+        if (mReady != null) {
+            putFree(mReady);
+        }
+        mReady = snapshot;
+        notifyAll();
+    }
+
+    /**
+     * Take the latest published snapshot, waiting for one if necessary.
+     * Render thread only; the snapshot must be given back with
+     * {@link #endRead} once drawn.
+     *
+     * @return The snapshot, or null if the pipeline has been closed.
+     */
+    public synchronized FrameSnapshot beginRead() throws InterruptedException {
+        while (!mClosed) {
+            FrameSnapshot snapshot = mReady;
+            if (snapshot != null) {
+                mReady = null;
+                return snapshot;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    public synchronized void endRead(FrameSnapshot snapshot) {
+        putFree(snapshot);
+        notifyAll();
+    }
+
+    /**
+     * Wake both threads and make every further wait return null.
+     */
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    private FrameSnapshot takeFree() {
+        FrameSnapshot snapshot = mFree1;
+        if (snapshot != null) {
+            mFree1 = mFree2;
+            mFree2 = null;
+        }
+        return snapshot;
+    }
+
+    private void putFree(FrameSnapshot snapshot) {
+        if (mFree1 == null) {
+            mFree1 = snapshot;
+        } else {
+            mFree2 = snapshot;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Frame time and ball count summary of a long run under load, usually one
+ * driven by a {@link StressDriver}.
+ * <p>
+ * Besides the frame time distribution, this tracks the largest ball count
+ * the loop sustained within the target frame time: frames are grouped into
+ * windows of {@link #WINDOW_FRAMES}, a window counts as sustained if no more
+ * than {@link #WINDOW_SLOW_FRAMES} of its frames ran over the target (so a
+ * stray GC doesn't disqualify it), and the window's smallest ball count is
+ * what it sustained.
+ * <p>
+ * Only one thread may record frames; any thread may read the results, which
+ * may lag by a frame.
+ */
+public final class SoakReport {
+    public static final int WINDOW_FRAMES = 60;
+    public static final int WINDOW_SLOW_FRAMES = 3;
+
+    private final long mTargetFrameNanos;
+    private final Histogram mFrameTimes = new Histogram();
+
+    /* Window in progress. */
+    private int mWindowFrames;
+    private int mWindowSlowFrames;
+    private int mWindowMinBalls;
+
+    private volatile int mMaxBalls;
+    private volatile int mMaxSustainedBalls;
+    private volatile int mSustainedWindows;
+    private volatile int mWindows;
+
+    /**
+     * @param targetFrameNanos Frame time budget to judge frames against.
+     */
+    public SoakReport(long targetFrameNanos) {
+        mTargetFrameNanos = targetFrameNanos;
+    }
+
+    public long getTargetFrameNanos() {
+        return mTargetFrameNanos;
+    }
+
+    public void recordFrame(long frameNanos, int balls) {
+        mFrameTimes.record(frameNanos);
+        if (balls > mMaxBalls) {
+            mMaxBalls = balls;
+        }
+
+        if (mWindowFrames == 0 || balls < mWindowMinBalls) {
+            mWindowMinBalls = balls;
+        }
+        if (frameNanos > mTargetFrameNanos) {
+            mWindowSlowFrames++;
+        }
+        if (++mWindowFrames == WINDOW_FRAMES) {
+            mWindows++;
+            if (mWindowSlowFrames <= WINDOW_SLOW_FRAMES) {
+                mSustainedWindows++;
+                if (mWindowMinBalls > mMaxSustainedBalls) {
+                    mMaxSustainedBalls = mWindowMinBalls;
+                }
+            }
+            mWindowFrames = 0;
+            mWindowSlowFrames = 0;
+        }
+    }
+
+    public Histogram getFrameTimes() {
+        return mFrameTimes;
+    }
+
+    /**
+     * Most balls on screen at once, whether or not the frame rate held.
+     */
+    public int getMaxBalls() {
+        return mMaxBalls;
+    }
+
+    /**
+     * Most balls kept on screen for a whole window within the target frame
+     * time.
+     */
+    public int getMaxSustainedBalls() {
+        return mMaxSustainedBalls;
+    }
+
+    /**
+     * Human readable summary, one line per figure. Allocates, so call it on
+     * demand rather than per frame.
+     */
+    public String format() {
+        Histogram h = mFrameTimes;
+        StringBuilder b = new StringBuilder();
+        b.append(String.format("%d frames, target %.2f ms\n", h.getCount(),
+                mTargetFrameNanos / 1000000.0));
+        b.append(String.format("frame time   p50=%.2f p99=%.2f max=%.2f mean=%.2f ms\n",
+                h.getValueAtPercentile(50) / 1000000.0, h.getValueAtPercentile(99) / 1000000.0,
+                h.getMax() / 1000000.0, h.getMean() / 1000000.0));
+        b.append(String.format("windows      %d of %d within target\n", mSustainedWindows,
+                mWindows));
+        b.append(String.format("balls        sustained=%d max=%d\n", mMaxSustainedBalls,
+                mMaxBalls));
+        return b.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Uniform grid broadphase. Balls are bucketed into square cells (hashed so
+ * that the table size depends only on the ball count, not the canvas size)
+ * and only balls in the same or adjacent cells are reported as candidate
+ * pairs. With a cell size of roughly one ball diameter this turns the
+ * all-pairs n^2 check into something close to linear.
+ */
+class SpatialHashGrid {
+    /* Large primes from the classic spatial hashing paper (Teschner et al). */
+    private static final int HASH_PRIME_X = 73856093;
+    private static final int HASH_PRIME_Y = 19349663;
+
+    private float mCellSize;
+    private int mCount;
+    private int mTableMask;
+
+    /* Per-entry cell coordinates, indexed by the caller's ball index. */
+    private int[] mCellX = new int[0];
+    private int[] mCellY = new int[0];
+    private int[] mBucket = new int[0];
+
+    /*
+     * Entries sorted by bucket (counting sort). Bucket b owns the range
+     * [mBucketStart[b], mBucketStart[b + 1]) of mSorted.
+     */
+    private int[] mSorted = new int[0];
+    private int[] mBucketStart = new int[1];
+
+    /**
+     * Prepare the grid for a new set of {@code count} entries. Must be
+     * followed by exactly one {@link #insert} for each index in [0, count).
+     */
+    public void begin(float cellSize, int count) {
+        mCellSize = cellSize;
+        mCount = count;
+
+        if (mCellX.length < count) {
+            int capacity = Math.max(count, mCellX.length * 2);
+            mCellX = new int[capacity];
+            mCellY = new int[capacity];
+            mBucket = new int[capacity];
+            mSorted = new int[capacity];
+            BufferAllocationCounter.increment();
+        }
+
+        /* Keep the load factor at or below 0.5 to limit hash collisions. */
+        int tableSize = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+        if (mBucketStart.length < tableSize + 1) {
+            mBucketStart = new int[tableSize + 1];
+            BufferAllocationCounter.increment();
+        }
+        mTableMask = tableSize - 1;
+    }
+
+    public void insert(int index, float x, float y) {
+        int cx = (int)Math.floor(x / mCellSize);
+        int cy = (int)Math.floor(y / mCellSize);
+        mCellX[index] = cx;
+        mCellY[index] = cy;
+        mBucket[index] = hash(cx, cy);
+    }
+
+    /**
+     * Emit every pair of entries that occupy the same or neighboring cells,
+     * except pairs where both entries are asleep. Each pair is reported once.
+     *
+     * @param asleep Entries that are at rest. Only awake entries' neighbors
+     *            are searched, so the cost scales with the awake entries.
+     */
+    public void findPairs(PairBuffer out, boolean[] asleep) {
+        sortByBucket();
+
+        int N = mCount;
+        for (int i = 0; i < N; i++) {
+            if (asleep[i]) {
+                continue;
+            }
+            int cx = mCellX[i];
+            int cy = mCellY[i];
+            for (int ny = cy - 1; ny <= cy + 1; ny++) {
+                for (int nx = cx - 1; nx <= cx + 1; nx++) {
+                    int bucket = hash(nx, ny);
+                    int end = mBucketStart[bucket + 1];
+                    for (int k = mBucketStart[bucket]; k < end; k++) {
+                        int j = mSorted[k];
+                        /*
+                         * Skip hash collisions from unrelated cells, and only
+                         * report each unordered pair once (sleeping entries
+                         * never search, so pairs with them are always ours).
+                         */
+                        if ((j > i || (asleep[j] && j != i)) &&
+                                mCellX[j] == nx && mCellY[j] == ny) {
+                            out.add(i, j);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void sortByBucket() {
+        int[] start = mBucketStart;
+        int tableSize = mTableMask + 1;
+        for (int b = 0; b <= tableSize; b++) {
+            start[b] = 0;
+        }
+
+        /* Count, then turn the counts into the end offset of each bucket. */
+        int N = mCount;
+        for (int i = 0; i < N; i++) {
+            start[mBucket[i]]++;
+        }
+        for (int b = 1; b < tableSize; b++) {
+            start[b] += start[b - 1];
+        }
+        start[tableSize] = N;
+
+        /*
+         * Fill each bucket from the back so that start[b] is left pointing at
+         * its first entry once we're done (and entries stay in index order).
+         */
+        for (int i = N - 1; i >= 0; i--) {
+            mSorted[--start[mBucket[i]]] = i;
+        }
+    }
+
+    private int hash(int cx, int cy) {
+        return ((cx * HASH_PRIME_X) ^ (cy * HASH_PRIME_Y)) & mTableMask;
+    }
+}
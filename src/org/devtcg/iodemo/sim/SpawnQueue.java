@@ -0,0 +1,71 @@
+package org.devtcg.iodemo.sim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer ring of glyph spawn requests
+ * (touch coordinates). The UI thread offers, the render thread drains at the
+ * start of each frame; neither ever blocks or allocates. If the render thread
+ * falls far enough behind for the ring to fill, further taps are dropped,
+ * which is preferable to stalling input dispatch.
+ */
+public final class SpawnQueue {
+    private final float[] mX;
+    private final float[] mY;
+    private final int mMask;
+
+    /* Written only by the consumer. */
+    private final AtomicLong mHead = new AtomicLong();
+
+    /* Written only by the producer. */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * @param capacity Rounded up to a power of two.
+     */
+    public SpawnQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mX = new float[size];
+        mY = new float[size];
+        mMask = size - 1;
+        BufferAllocationCounter.increment();
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return False if the queue was full and the request was dropped.
+     */
+    public boolean offer(float x, float y) {
+        long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            return false;
+        }
+        int slot = (int)tail & mMask;
+        mX[slot] = x;
+        mY[slot] = y;
+        /* Ordered store publishes the slot contents before the new tail. */
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side: spawn a glyph for every pending request.
+     *
+     * @return Number of requests drained.
+     */
+    public int drainTo(Simulation simulation) {
+        long head = mHead.get();
+        long tail = mTail.get();
+        if (head == tail) {
+            return 0;
+        }
+        for (long i = head; i < tail; i++) {
+            int slot = (int)i & mMask;
+            simulation.spawnGlyph(mX[slot], mY[slot]);
+        }
+        /* Hand the slots back to the producer only after we've read them. */
+        mHead.lazySet(tail);
+        return (int)(tail - head);
+    }
+}
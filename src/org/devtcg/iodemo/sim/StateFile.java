@@ -0,0 +1,128 @@
+package org.devtcg.iodemo.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Saves a {@link BallSimulation} to a file and restores it again, so that
+ * the scene survives the surface (or the whole process) going away.
+ * <p>
+ * The ball attributes are written and read back an array at a time in the
+ * device's native byte order, with no per-ball encoding, so capturing or
+ * restoring tens of thousands of balls takes a few milliseconds. The files
+ * aren't meant to move between devices; one with the wrong byte order is
+ * simply rejected.
+ * <p>
+ * Saving is split in two so that only the quick part has to hold up the
+ * simulation: {@link #capture} copies the state to memory, and
+ * {@link #write} puts that copy on disk and syncs it, from any thread.
+ * <p>
+ * The header's magic number is written last, so a save that is cut short
+ * leaves a file that won't be restored.
+ */
+public final class StateFile {
+    static final int MAGIC = 0x494f5354; /* "IOST" */
+    static final int VERSION = 1;
+
+    /* Magic, version and total length. */
+    private static final int HEADER_BYTES = 3 * 4;
+
+    private StateFile() {
+    }
+
+    /**
+     * Write the current state of {@code simulation} to {@code file},
+     * replacing whatever was there.
+     */
+    public static void save(BallSimulation simulation, File file) throws IOException {
+        write(capture(simulation), file);
+    }
+
+    /**
+     * Copy the current state of {@code simulation}, ready to {@link #write}.
+     */
+    public static ByteBuffer capture(BallSimulation simulation) {
+        int length = HEADER_BYTES + simulation.getStateSize();
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(length);
+        simulation.writeState(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Write a state returned by {@link #capture} to {@code file}, replacing
+     * whatever was there, and wait for it to reach the disk.
+     */
+    public static void write(ByteBuffer state, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+
+            /* Everything but the magic, which reads as 0 until written. */
+            ByteBuffer body = state.duplicate();
+            body.position(4);
+            long position = 4;
+            while (body.hasRemaining()) {
+                position += channel.write(body, position);
+            }
+            channel.force(false);
+
+            ByteBuffer magic = state.duplicate();
+            magic.limit(4);
+            while (magic.hasRemaining()) {
+                channel.write(magic, magic.position());
+            }
+            channel.force(false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Replace the state of {@code simulation} with that saved in
+     * {@code file}. If this throws, the simulation is left as it was.
+     *
+     * @return False if there is no saved state.
+     * @throws IOException if the file can't be read, or holds a state that
+     *             can't be restored into this simulation.
+     */
+    public static boolean restore(File file, BallSimulation simulation) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a saved simulation state");
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    length);
+            buffer.order(ByteOrder.nativeOrder());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a saved simulation state");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported state version " + version);
+            }
+            if (buffer.getInt() != length) {
+                throw new IOException("Truncated simulation state");
+            }
+            simulation.readState(buffer);
+        } finally {
+            raf.close();
+        }
+        return true;
+    }
+}
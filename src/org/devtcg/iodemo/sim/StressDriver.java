@@ -0,0 +1,100 @@
+package org.devtcg.iodemo.sim;
+
+import java.util.Random;
+
+/**
+ * Spawns glyphs into a simulation at a steady (or steadily climbing) rate,
+ * as if someone were tapping the screen nonstop, to find out how many balls
+ * the frame loop can keep up with. See {@link SoakReport}.
+ * <p>
+ * Spawns are owed according to the time since {@link #start}, so the rate
+ * holds regardless of the frame rate; a frame that comes late just spawns
+ * more, up to {@link #MAX_SPAWNS_PER_FRAME}.
+ * <p>
+ * Not thread safe; owned by the simulation thread.
+ */
+public final class StressDriver {
+    /* After a long stall, drop what's owed beyond this instead of bursting. */
+    private static final int MAX_SPAWNS_PER_FRAME = 32;
+
+    private final Random mRandom;
+    private final float mRate;
+    private final float mRamp;
+
+    private int mWidth;
+    private int mHeight;
+
+    private long mStartNanos;
+    private long mSpawned;
+    private boolean mStarted;
+
+    /**
+     * @param glyphsPerSecond Spawn rate at the start.
+     * @param rampPerSecond How much the spawn rate climbs each second, or 0
+     *            to hold it steady.
+     * @param seed Seed for spawn positions, so runs can be reproduced.
+     */
+    public StressDriver(float glyphsPerSecond, float rampPerSecond, long seed) {
+        if (glyphsPerSecond < 0 || rampPerSecond < 0) {
+            throw new IllegalArgumentException("Rates must not be negative");
+        }
+        mRate = glyphsPerSecond;
+        mRamp = rampPerSecond;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Set the area to spawn in. Nothing spawns until this is set.
+     */
+    public void setSurfaceSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Start (or restart) the clock the spawn rate is measured against.
+     */
+    public void start(long nowNanos) {
+        mStartNanos = nowNanos;
+        mSpawned = 0;
+        mStarted = true;
+    }
+
+    /**
+     * Current spawn rate, in glyphs per second.
+     */
+    public float getRate(long nowNanos) {
+        if (!mStarted) {
+            return mRate;
+        }
+        return mRate + mRamp * ((nowNanos - mStartNanos) / 1000000000f);
+    }
+
+    /**
+     * Spawn whatever glyphs have come due by {@code nowNanos}. Starts the
+     * clock on first use.
+     *
+     * @return Number of glyphs spawned.
+     */
+    public int drive(Simulation simulation, long nowNanos) {
+        if (!mStarted) {
+            start(nowNanos);
+        }
+        if (mWidth <= 0 || mHeight <= 0) {
+            return 0;
+        }
+
+        double seconds = (nowNanos - mStartNanos) / 1000000000.0;
+        long owed = (long)(mRate * seconds + mRamp * seconds * seconds / 2) - mSpawned;
+        if (owed > MAX_SPAWNS_PER_FRAME) {
+            mSpawned += owed - MAX_SPAWNS_PER_FRAME;
+            owed = MAX_SPAWNS_PER_FRAME;
+        }
+
+        for (int i = 0; i < owed; i++) {
+            simulation.spawnGlyph(mRandom.nextFloat() * mWidth, mRandom.nextFloat() * mHeight);
+        }
+        mSpawned += Math.max(0, owed);
+        return (int)Math.max(0, owed);
+    }
+}
@@ -0,0 +1,94 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Splits a list of collision pairs into vertical strips of the surface so
+ * that they can be resolved in parallel without two threads ever touching
+ * the same ball.
+ * <p>
+ * Each ball belongs to the strip its center is in, and each pair to the
+ * lower numbered strip of its two balls. As long as strips are at least as
+ * wide as the furthest apart two paired balls can be, a pair in strip k only
+ * touches balls in strips k and k + 1. All even strips can therefore be
+ * resolved concurrently, followed by all odd strips. Within a strip pairs are
+ * resolved in the order the broadphase produced them, so the result does not
+ * depend on how strips are scheduled across threads.
+ */
+class StripPartition {
+    private int mStripCount;
+
+    /* Per-ball strip index. */
+    private int[] mBallStrip = new int[0];
+
+    /*
+     * Pair indices sorted by strip (counting sort, stable). Strip s owns the
+     * range [mStripStart[s], mStripStart[s + 1]) of mPairOrder.
+     */
+    private int[] mPairOrder = new int[0];
+    private int[] mStripStart = new int[1];
+
+    public void partition(BallStore balls, PairBuffer pairs, float stripWidth, int surfaceWidth) {
+        /* Balls sitting exactly on the right edge land in one extra strip. */
+        int stripCount = (int)(surfaceWidth / stripWidth) + 1;
+        mStripCount = stripCount;
+
+        int N = balls.size();
+        if (mBallStrip.length < N) {
+            mBallStrip = new int[Math.max(N, mBallStrip.length * 2)];
+            BufferAllocationCounter.increment();
+        }
+        int numPairs = pairs.size();
+        if (mPairOrder.length < numPairs) {
+            mPairOrder = new int[Math.max(numPairs, mPairOrder.length * 2)];
+            BufferAllocationCounter.increment();
+        }
+        if (mStripStart.length < stripCount + 1) {
+            mStripStart = new int[stripCount + 1];
+            BufferAllocationCounter.increment();
+        }
+
+        float[] xs = balls.x;
+        for (int i = 0; i < N; i++) {
+            int strip = (int)(xs[i] / stripWidth);
+            mBallStrip[i] = strip < 0 ? 0 : (strip >= stripCount ? stripCount - 1 : strip);
+        }
+
+        int[] start = mStripStart;
+        for (int s = 0; s <= stripCount; s++) {
+            start[s] = 0;
+        }
+        for (int k = 0; k < numPairs; k++) {
+            start[pairStrip(pairs, k)]++;
+        }
+        for (int s = 1; s < stripCount; s++) {
+            start[s] += start[s - 1];
+        }
+        start[stripCount] = numPairs;
+        for (int k = numPairs - 1; k >= 0; k--) {
+            mPairOrder[--start[pairStrip(pairs, k)]] = k;
+        }
+    }
+
+    private int pairStrip(PairBuffer pairs, int pair) {
+        return Math.min(mBallStrip[pairs.getFirst(pair)], mBallStrip[pairs.getSecond(pair)]);
+    }
+
+    public int getStripCount() {
+        return mStripCount;
+    }
+
+    public int getStart(int strip) {
+        return mStripStart[strip];
+    }
+
+    public int getEnd(int strip) {
+        return mStripStart[strip + 1];
+    }
+
+    /**
+     * @return Index into the original {@link PairBuffer} of the k-th pair in
+     *         strip order.
+     */
+    public int getPair(int k) {
+        return mPairOrder[k];
+    }
+}
@@ -0,0 +1,287 @@
+package org.devtcg.iodemo.sim;
+
+/**
+ * Sweep-and-prune broadphase. Balls are kept ordered by the left edge of
+ * their x extent, and only balls whose x extents overlap (and, as a cheap
+ * extra filter, whose y extents overlap) are reported as candidate pairs.
+ * <p>
+ * The order is kept from one step to the next and repaired with an
+ * insertion sort. Balls only move a fraction of their radius per step, so
+ * the order is nearly sorted already and the repair is close to linear.
+ * Indices must be kept in sync with the ball store: compaction is reported
+ * through {@link #remap}, and balls appended at the end are picked up
+ * automatically by {@link #findPairs}.
+ * <p>
+ * Extents can optionally cover each ball's motion over the coming step, for
+ * continuous collision detection.
+ */
+class SweepAndPrune {
+    /*
+     * Appending more than this fraction of the known balls at once sorts
+     * from scratch instead; inserting a large random batch one at a time
+     * would be quadratic.
+     */
+    private static final int REBUILD_DIVISOR = 4;
+
+    /* Ball indices ordered by mMinX; entries [0, mCount) are valid. */
+    private int[] mOrder = new int[0];
+    private int mCount;
+
+    /* X extents of mOrder[k], refreshed each step. */
+    private float[] mMinX = new float[0];
+    private float[] mMaxX = new float[0];
+
+    /* Y extents, indexed by ball rather than by position in the order. */
+    private float[] mMinY = new float[0];
+    private float[] mMaxY = new float[0];
+
+    /* Scratch used only when sorting from scratch. */
+    private long[] mSortKeys = new long[0];
+    private int[] mSortOrder = new int[0];
+    private float[] mSortMinX = new float[0];
+    private float[] mSortMaxX = new float[0];
+
+    /**
+     * Forget the current order; the next {@link #findPairs} sorts from
+     * scratch.
+     */
+    public void reset() {
+        mCount = 0;
+    }
+
+    /**
+     * Apply a compaction of the ball store.
+     *
+     * @param newIndex Maps each ball index from before the compaction to its
+     *            index after, or -1 if it was removed. Compaction must have
+     *            preserved the relative order of survivors.
+     * @param oldCount Number of entries in {@code newIndex}.
+     */
+    public void remap(int[] newIndex, int oldCount) {
+        int[] order = mOrder;
+        int N = mCount;
+        int live = 0;
+        for (int k = 0; k < N; k++) {
+            int ball = order[k];
+            int mapped = ball < oldCount ? newIndex[ball] : -1;
+            if (mapped >= 0) {
+                order[live++] = mapped;
+            }
+        }
+        mCount = live;
+    }
+
+    /**
+     * Bring the order up to date with the current positions of balls
+     * [0, balls.size()) and emit every candidate pair.
+     *
+     * @param sweep Scale applied to each ball's velocity to get the distance
+     *            it will travel, which is added to its extents; 0 to consider
+     *            only where the balls are now.
+     */
+    public void findPairs(BallStore balls, PairBuffer out, float sweep) {
+        int N = balls.size();
+        boolean rebuild = sync(N);
+
+        int[] order = mOrder;
+        float[] minX = mMinX;
+        float[] maxX = mMaxX;
+        float[] minY = mMinY;
+        float[] maxY = mMaxY;
+        float[] xs = balls.x;
+        float[] ys = balls.y;
+        float[] dxs = balls.dx;
+        float[] dys = balls.dy;
+        float[] radii = balls.radius;
+        for (int k = 0; k < N; k++) {
+            int ball = order[k];
+            float r = radii[ball];
+            float x0 = xs[ball];
+            float x1 = x0 + dxs[ball] * sweep;
+            minX[k] = Math.min(x0, x1) - r;
+            maxX[k] = Math.max(x0, x1) + r;
+            float y0 = ys[ball];
+            float y1 = y0 + dys[ball] * sweep;
+            minY[ball] = Math.min(y0, y1) - r;
+            maxY[ball] = Math.max(y0, y1) + r;
+        }
+
+        if (rebuild) {
+            sortFromScratch(N);
+        } else {
+            insertionSort(N);
+        }
+
+        sweep(out, balls.asleep);
+    }
+
+    /**
+     * Make mOrder a permutation of [0, count) by dropping indices that no
+     * longer exist and appending ones that are new since the last step.
+     *
+     * @return True if so many were appended that the order should be sorted
+     *         from scratch.
+     */
+    private boolean sync(int count) {
+        int[] order = mOrder;
+        int known = mCount;
+        if (known > count) {
+            /* Balls were removed without a remap; drop the stale indices. */
+            int live = 0;
+            for (int k = 0; k < known; k++) {
+                if (order[k] < count) {
+                    order[live++] = order[k];
+                }
+            }
+            known = live;
+        }
+
+        if (order.length < count) {
+            int capacity = Math.max(count, order.length * 2);
+            int[] newOrder = new int[capacity];
+            System.arraycopy(order, 0, newOrder, 0, known);
+            mOrder = order = newOrder;
+            mMinX = new float[capacity];
+            mMaxX = new float[capacity];
+            mMinY = new float[capacity];
+            mMaxY = new float[capacity];
+            BufferAllocationCounter.increment();
+        }
+
+        for (int ball = known; ball < count; ball++) {
+            order[ball] = ball;
+        }
+        mCount = count;
+
+        return (count - known) * REBUILD_DIVISOR > known;
+    }
+
+    private void insertionSort(int count) {
+        int[] order = mOrder;
+        float[] minX = mMinX;
+        float[] maxX = mMaxX;
+
+        for (int k = 1; k < count; k++) {
+            float key = minX[k];
+            if (minX[k - 1] <= key) {
+                continue;
+            }
+            int ball = order[k];
+            float right = maxX[k];
+            int m = k - 1;
+            do {
+                order[m + 1] = order[m];
+                minX[m + 1] = minX[m];
+                maxX[m + 1] = maxX[m];
+                m--;
+            } while (m >= 0 && minX[m] > key);
+            order[m + 1] = ball;
+            minX[m + 1] = key;
+            maxX[m + 1] = right;
+        }
+    }
+
+    private void sortFromScratch(int count) {
+        if (mSortKeys.length < count || mSortOrder.length < count) {
+            int capacity = Math.max(count, mOrder.length);
+            mSortKeys = new long[capacity];
+            mSortOrder = new int[capacity];
+            mSortMinX = new float[capacity];
+            mSortMaxX = new float[capacity];
+            BufferAllocationCounter.increment();
+        }
+
+        /*
+         * Pack an order-preserving integer form of each key above its slot so
+         * that a primitive sort carries the slot along with it.
+         */
+        long[] keys = mSortKeys;
+        float[] minX = mMinX;
+        for (int k = 0; k < count; k++) {
+            int bits = Float.floatToIntBits(minX[k]);
+            bits ^= (bits >> 31) & 0x7fffffff;
+            keys[k] = ((long)bits << 32) | k;
+        }
+        heapSort(keys, count);
+
+        int[] order = mOrder;
+        float[] maxX = mMaxX;
+        int[] sortedOrder = mSortOrder;
+        float[] sortedMinX = mSortMinX;
+        float[] sortedMaxX = mSortMaxX;
+        for (int k = 0; k < count; k++) {
+            int slot = (int)keys[k];
+            sortedOrder[k] = order[slot];
+            sortedMinX[k] = minX[slot];
+            sortedMaxX[k] = maxX[slot];
+        }
+
+        /* Swap buffers rather than copying back. */
+        mSortOrder = order;
+        mSortMinX = minX;
+        mSortMaxX = maxX;
+        mOrder = sortedOrder;
+        mMinX = sortedMinX;
+        mMaxX = sortedMaxX;
+    }
+
+    /**
+     * Sort {@code keys[0, count)} in place. Arrays.sort would do, except that
+     * on recent JDKs it allocates a merge buffer for input that is already
+     * partly in order, which is exactly what appending balls leaves us.
+     */
+    private static void heapSort(long[] keys, int count) {
+        for (int k = count / 2 - 1; k >= 0; k--) {
+            siftDown(keys, k, count);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            long largest = keys[0];
+            keys[0] = keys[end];
+            keys[end] = largest;
+            siftDown(keys, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] keys, int k, int count) {
+        long key = keys[k];
+        int child;
+        while ((child = 2 * k + 1) < count) {
+            if (child + 1 < count && keys[child + 1] > keys[child]) {
+                child++;
+            }
+            if (keys[child] <= key) {
+                break;
+            }
+            keys[k] = keys[child];
+            k = child;
+        }
+        keys[k] = key;
+    }
+
+    /**
+     * Emit overlapping pairs, except those where both balls are asleep.
+     */
+    private void sweep(PairBuffer out, boolean[] asleep) {
+        int[] order = mOrder;
+        float[] minX = mMinX;
+        float[] maxX = mMaxX;
+        float[] minY = mMinY;
+        float[] maxY = mMaxY;
+
+        int N = mCount;
+        for (int k = 0; k < N; k++) {
+            float right = maxX[k];
+            int ball = order[k];
+            float top = minY[ball];
+            float bottom = maxY[ball];
+            boolean sleeping = asleep[ball];
+            for (int m = k + 1; m < N && minX[m] <= right; m++) {
+                int other = order[m];
+                if (minY[other] <= bottom && maxY[other] >= top &&
+                        !(sleeping && asleep[other])) {
+                    out.add(ball, other);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.devtcg.iodemo.sim;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal fork/join style pool for data parallel loops: {@link #execute}
+ * runs a task once for every index in a range, spread across the worker
+ * threads and the calling thread, and returns when all of them are done.
+ * <p>
+ * Unlike an {@link java.util.concurrent.ExecutorService} nothing is allocated
+ * per call, which keeps it usable from the frame loop (and it doesn't need
+ * {@code java.util.concurrent.ForkJoinPool}, which older Android releases
+ * lack).
+ */
+public class WorkerPool {
+    public interface Task {
+        public void run(int index);
+    }
+
+    private final Thread[] mThreads;
+
+    private final Object mLock = new Object();
+
+    /* The following are guarded by mLock. */
+    private Task mTask;
+    private int mCount;
+    private int mGeneration;
+    private int mActiveWorkers;
+    private boolean mShutdown;
+    private Throwable mFailure;
+
+    /* Next index to claim, and indices not yet finished, for the current task. */
+    private final AtomicInteger mNextIndex = new AtomicInteger();
+    private final AtomicInteger mRemaining = new AtomicInteger();
+
+    /**
+     * @param threads Number of worker threads to start, in addition to the
+     *            thread that calls {@link #execute}.
+     */
+    public WorkerPool(int threads) {
+        mThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            mThreads[i] = new Thread(new Runnable() {
+                public void run() {
+                    workerLoop();
+                }
+            }, "WorkerPool-" + i);
+            mThreads[i].setDaemon(true);
+            mThreads[i].start();
+        }
+    }
+
+    /**
+     * Number of threads that work on each task, including the caller.
+     */
+    public int getParallelism() {
+        return mThreads.length + 1;
+    }
+
+    /**
+     * Run {@code task} for each index in [0, count) and wait for all of them
+     * to finish. Indices are handed out in no particular order, so tasks must
+     * not depend on each other.
+     * <p>
+     * If any run throws, the rest still run to completion and the first
+     * failure is then re-thrown here, on the calling thread.
+     */
+    public void execute(Task task, int count) {
+        if (count <= 0) {
+            return;
+        }
+
+        synchronized (mLock) {
+            mTask = task;
+            mCount = count;
+            mNextIndex.set(0);
+            mRemaining.set(count);
+            mGeneration++;
+            mLock.notifyAll();
+        }
+
+        runIndices(task, count);
+
+        synchronized (mLock) {
+            /*
+             * Wait for stragglers to check out as well so that no worker can
+             * still be claiming indices when the next task begins.
+             */
+            while (mRemaining.get() > 0 || mActiveWorkers > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mTask = null;
+
+            Throwable failure = mFailure;
+            if (failure != null) {
+                mFailure = null;
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException)failure;
+                }
+                if (failure instanceof Error) {
+                    throw (Error)failure;
+                }
+                throw new RuntimeException(failure);
+            }
+        }
+    }
+
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mLock.notifyAll();
+        }
+    }
+
+    private void runIndices(Task task, int count) {
+        int index;
+        while ((index = mNextIndex.getAndIncrement()) < count) {
+            try {
+                task.run(index);
+            } catch (Throwable e) {
+                synchronized (mLock) {
+                    if (mFailure == null) {
+                        mFailure = e;
+                    }
+                }
+            } finally {
+                /* Always count the index off, or execute() would never return. */
+                if (mRemaining.decrementAndGet() == 0) {
+                    synchronized (mLock) {
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private void workerLoop() {
+        int seenGeneration = 0;
+        while (true) {
+            Task task;
+            int count;
+            synchronized (mLock) {
+                while (!mShutdown && (mGeneration == seenGeneration || mTask == null)) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mShutdown) {
+                    return;
+                }
+                seenGeneration = mGeneration;
+                task = mTask;
+                count = mCount;
+                mActiveWorkers++;
+            }
+
+            try {
+                runIndices(task, count);
+            } finally {
+                synchronized (mLock) {
+                    mActiveWorkers--;
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+}